@@ -81,10 +81,12 @@ public class AppService extends ABaseService {
     private void checkBluetoothConnect() {
         if (!TextUtils.isEmpty(BluetoothService.getAutoConnectBluetoothMac())
                 && BluetoothService.getBluetoothDeviceConnected() == null
+                && BluetoothService.getBluetoothDeviceConnecting() == null
+                && !BluetoothService.isReconnecting()
                 && !BluetoothService.isSearching()
                 && System.currentTimeMillis() / 1000 % 5 == 0) {
-            // 连接过，且未连接开启搜索自动连接
-            LogUtils.w("连接过，且未连接开启搜索自动连接");
+            // 连接过，未连接且库未在自动重连时，先通过MAC直接连接，失败后开启搜索自动连接
+            LogUtils.w("连接过，且未连接开始自动连接");
             if (!BluetoothService.checkAutoConnect()) {
                 if (BluetoothService.isBluetoothOpened()) {
                     BluetoothService.startSearch();
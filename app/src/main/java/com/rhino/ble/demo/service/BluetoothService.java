@@ -25,6 +25,7 @@ import org.greenrobot.eventbus.EventBus;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 
 /**
  * @author rhino
@@ -44,6 +45,14 @@ public class BluetoothService extends Service implements BLECallback {
      * 是否正在搜索
      */
     private static boolean isSearching;
+    /**
+     * 是否正在通过MAC直接连接
+     */
+    private static boolean directConnecting;
+    /**
+     * 通过MAC直接连接失败，下次搜索后再连接
+     */
+    private static boolean directConnectFailed;
 
     public static final int NOTICE_ID = 100;
     /**
@@ -79,6 +88,13 @@ public class BluetoothService extends Service implements BLECallback {
         return BLEUtils.getInstance().getBluetoothDeviceConnecting();
     }
 
+    /**
+     * 是否正在自动重连
+     */
+    public static boolean isReconnecting() {
+        return BLEUtils.getInstance().isClientReconnecting();
+    }
+
     /**
      * 当前已连接的蓝牙
      */
@@ -305,11 +321,19 @@ public class BluetoothService extends Service implements BLECallback {
     }
 
     /**
-     * 保存连接成功的蓝牙
+     * 保存连接成功的蓝牙及其类型，之后可以通过MAC直接连接
      */
-    public static void saveAutoConnectBluetoothMac(String mac) {
+    public static void saveAutoConnectBluetoothMac(String mac, boolean ble) {
         autoConnectBluetoothMac = mac;
         SharedPreferencesUtils.getInstance().putString("mac", mac);
+        SharedPreferencesUtils.getInstance().putBoolean("mac_ble", ble);
+    }
+
+    /**
+     * 连接成功的蓝牙是否低功耗蓝牙，旧版本未保存时默认低功耗
+     */
+    public static boolean isAutoConnectBluetoothBle() {
+        return SharedPreferencesUtils.getInstance().getBoolean("mac_ble", true);
     }
 
     /**
@@ -326,13 +350,14 @@ public class BluetoothService extends Service implements BLECallback {
      * 在activity.onCreate()中调用
      */
     private void init(Context context, BLECallback callBack) {
-        // 传统蓝牙之间通信的uuid
-        BLEUtils.BLE_CLASSIC_UUID = "00001101-0000-1000-8000-00805F9B34FB";
-        // 低功耗蓝牙的特征值uuid，发送
-        BLEUtils.BLE_lE_UUID_SERVICE_EIGENVALUE_SEND = "0000ffe1-0000-1000-8000-00805f9b34fb";
-        // 低功耗蓝牙的特征值uuid，接收
-        BLEUtils.BLE_LE_UUID_SERVICE_EIGENVALUE_READ = "00002902-0000-1000-8000-00805f9b34fb";
         BLEUtils.getInstance().onCreate(context, callBack);
+        // 传统蓝牙之间通信的uuid
+        BLEUtils.getInstance().setClassicUuid(UUID.fromString("00001101-0000-1000-8000-00805F9B34FB"));
+        // 低功耗蓝牙的特征值uuid，接收描述符和发送特征
+        BLEUtils.getInstance().setClientLeUuid(UUID.fromString("00002902-0000-1000-8000-00805f9b34fb"),
+                UUID.fromString("0000ffe1-0000-1000-8000-00805f9b34fb"));
+        // 连接意外断开后自动重连：0.5s起指数退避，最长30s，重连3次失败后由AppService搜索连接
+        BLEUtils.getInstance().setClientAutoReconnect(true, 500, 30000, 3);
     }
 
     /**
@@ -433,23 +458,31 @@ public class BluetoothService extends Service implements BLECallback {
                 //已经连接过服务器，发送数据中
             case CONNECT_SUCCESS:
                 //已连接服务器
+                directConnecting = false;
+                directConnectFailed = false;
                 if (getBluetoothDeviceConnected() != null) {
-                    saveAutoConnectBluetoothMac(getBluetoothDeviceConnected().getAddress());
+                    saveAutoConnectBluetoothMac(getBluetoothDeviceConnected().getAddress(),
+                            BLEUtils.getInstance().isClientLeConnected());
                 }
                 break;
             case CONNECT_FAILED:
                 //连接失败
+            case RECONNECT_FAILED:
+                //自动重连失败
+                onDirectConnectFailed();
                 clearConnectedData();
                 break;
             case DISCONNECTED:
                 //断开连接
+                onDirectConnectFailed();
                 clearConnectedData();
                 break;
             case READ_SUCCESS:
                 //收到消息
                 break;
             case READ_FAILED:
-                //读数据失败
+                //读数据失败（传统蓝牙连接失败也回调该事件）
+                onDirectConnectFailed();
                 clearConnectedData();
                 break;
             case WRITE_SUCCESS:
@@ -478,8 +511,9 @@ public class BluetoothService extends Service implements BLECallback {
                 setSearching(false);
                 break;
             case SEARCH_STOP:
-                //搜索完成
+                //搜索完成，下次先尝试直接连接
                 setSearching(false);
+                directConnectFailed = false;
                 break;
             default:
                 break;
@@ -503,7 +537,34 @@ public class BluetoothService extends Service implements BLECallback {
                 return true;
             }
         }
-        return false;
+        return directConnect();
+    }
+
+    /**
+     * 通过保存的MAC和类型直接连接，不需要先搜索；失败过一次后回退到搜索
+     */
+    private static boolean directConnect() {
+        String mac = getAutoConnectBluetoothMac();
+        if (TextUtils.isEmpty(mac) || isSearching() || directConnectFailed) {
+            return false;
+        }
+        LogUtils.d("开始直接连接：" + mac);
+        clearConnectedData();
+        directConnecting = BLEUtils.getInstance().clientConnect(mac, isAutoConnectBluetoothBle(), false);
+        return directConnecting;
+    }
+
+    /**
+     * 直接连接失败，下次搜索到设备后再连接
+     * 直接连接也会被自动重连接管，第一次失败就取消自动重连，不等重试次数用完才开始搜索
+     */
+    private static void onDirectConnectFailed() {
+        if (directConnecting) {
+            LogUtils.d("直接连接失败，改为搜索连接");
+            directConnecting = false;
+            directConnectFailed = true;
+            BLEUtils.getInstance().clientDisconnect();
+        }
     }
 
 }
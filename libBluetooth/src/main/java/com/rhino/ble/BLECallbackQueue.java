@@ -0,0 +1,57 @@
+package com.rhino.ble;
+
+import com.rhino.log.LogUtils;
+
+import java.util.ArrayDeque;
+
+/**
+ * 在锁外按记录顺序执行的回调
+ * 持有队列的锁时用{@link #post(Runnable)}记录状态变化，释放锁后调用{@link #drain()}执行，
+ * 回调中可以再调用队列的方法；多个线程同时drain时只由一个线程执行，其它线程记录的回调也由它按顺序执行
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLECallbackQueue {
+
+    private final ArrayDeque<Runnable> callbacks = new ArrayDeque<>();
+    /**
+     * 是否有线程正在执行回调
+     */
+    private boolean draining;
+
+    /**
+     * 记录回调，可以在任意锁内调用
+     */
+    synchronized void post(Runnable callback) {
+        callbacks.add(callback);
+    }
+
+    /**
+     * 执行已记录的回调，不能在队列的锁内调用
+     */
+    void drain() {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            Runnable callback;
+            synchronized (this) {
+                callback = callbacks.poll();
+                if (callback == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                LogUtils.e("回调失败", e);
+            }
+        }
+    }
+
+}
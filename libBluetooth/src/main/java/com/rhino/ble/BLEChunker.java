@@ -0,0 +1,36 @@
+package com.rhino.ble;
+
+/**
+ * 分包器，发送时按包依次从源数据切出一包，不预先复制整条消息
+ * 同一长度的分包复用同一个数组，稳定发送时每包不再分配内存，
+ * 因此chunk()返回的数组只在下一次调用chunk()之前有效
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLEChunker {
+
+    /**
+     * 按长度缓存的分包数组，pool[len]长度为len
+     */
+    private byte[][] pool = new byte[0][];
+
+    /**
+     * 切出data[offset, offset + len)
+     */
+    public byte[] chunk(byte[] data, int offset, int len) {
+        if (pool.length <= len) {
+            byte[][] newPool = new byte[len + 1][];
+            System.arraycopy(pool, 0, newPool, 0, pool.length);
+            pool = newPool;
+        }
+        byte[] packet = pool[len];
+        if (packet == null) {
+            packet = new byte[len];
+            pool[len] = packet;
+        }
+        System.arraycopy(data, offset, packet, 0, len);
+        return packet;
+    }
+
+}
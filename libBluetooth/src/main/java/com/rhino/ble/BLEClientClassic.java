@@ -3,13 +3,13 @@ package com.rhino.ble;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
-import android.text.TextUtils;
 
 import com.rhino.log.LogUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.UUID;
 
 /**
@@ -49,15 +49,164 @@ public class BLEClientClassic {
      */
     private ReadThread readThread;
 
+    /**
+     * 通信的UUID
+     */
+    private volatile UUID uuid;
+
+    /**
+     * 自动重连
+     */
+    private final BLEReconnectSupervisor reconnectSupervisor = new BLEReconnectSupervisor(new BLEReconnectSupervisor.Target() {
+        @Override
+        public void reconnect(BluetoothDevice device) {
+            close();
+            startConnectThread(device, null);
+        }
+
+        @Override
+        public void onReconnectFailed(BluetoothDevice device, String message) {
+            notifyEvent(BLEEvent.RECONNECT_FAILED, message);
+        }
+    });
+
     /**
      * 是否销毁
      */
     private boolean onDestroy = false;
+    /**
+     * 发送合并，未开启时为null
+     */
+    private volatile BLEWriteCoalescer coalescer;
+    /**
+     * 收到数据时是否回调原始byte[]
+     */
+    private boolean receiveBytes = false;
+    /**
+     * 读缓存大小，每次read最多读取的字节数
+     */
+    private int readBufferSize = 1024;
+    /**
+     * 消息压缩，未开启时为null
+     */
+    private volatile BLECompressor compressor;
+    /**
+     * 接收管道，未设置时每次read回调一次
+     */
+    private volatile BLEReceivePipeline receivePipeline;
+    /**
+     * 发送队列，调用线程不会被Socket写入阻塞
+     */
+    private final BLEStreamWriteQueue writeQueue = new BLEStreamWriteQueue(new BLEStreamWriteQueue.Target() {
+        @Override
+        public void write(byte[] data, int offset, int len) {
+            writeSocket(data, offset, len);
+        }
+
+        @Override
+        public void onWritableChanged(boolean writable) {
+            notifyEvent(writable ? BLEEvent.WRITABLE : BLEEvent.NOT_WRITABLE,
+                    writable ? "发送队列已降到低水位" : "发送队列已达到高水位");
+        }
+
+        @Override
+        public void onRejected(String message) {
+            notifyEvent(BLEEvent.WRITE_FAILED, message);
+        }
+    });
 
 
     public BLEClientClassic(BluetoothAdapter bluetoothAdapter, BLECallback callback) {
         this.bluetoothAdapter = bluetoothAdapter;
         this.callback = callback;
+        this.uuid = UUID.fromString(BLEUtils.BLE_CLASSIC_UUID);
+    }
+
+    /**
+     * 设置通信的UUID，下次连接时生效
+     */
+    public void setUuid(UUID uuid) {
+        this.uuid = uuid;
+    }
+
+    /**
+     * 设置收到数据时是否以READ_DATA事件回调原始byte[]，默认以READ_SUCCESS回调String
+     */
+    public void setReceiveBytes(boolean receiveBytes) {
+        this.receiveBytes = receiveBytes;
+    }
+
+    /**
+     * 设置读缓存大小，每次read最多读取的字节数，高速率数据流可以调大，下次连接时生效
+     */
+    public void setReadBufferSize(int readBufferSize) {
+        this.readBufferSize = Math.max(1, readBufferSize);
+    }
+
+    /**
+     * 设置接收管道，如分帧、校验、解码，设置了解码器时以READ_OBJECT回调解码后的对象，null时每次read回调一次
+     */
+    public void setReceivePipeline(BLEReceivePipeline receivePipeline) {
+        this.receivePipeline = receivePipeline;
+    }
+
+    /**
+     * 设置消息压缩，双方必须设置相同的压缩参数，null时关闭
+     */
+    public void setCompressor(BLECompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    public BLECompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * 设置合并发送，maxDelay毫秒内连续发送的小消息合并成一次写入，maxDelay小于等于0时关闭
+     * 缓存达到maxSize立即写入，合并后每次写入回调一次WRITE_SUCCESS或WRITE_FAILED
+     */
+    public void setCoalesce(long maxDelay, int maxSize) {
+        // 不在锁内输出，发送队列BLOCK策略阻塞时不会卡住其它线程
+        BLEWriteCoalescer old = coalescer;
+        if (old != null) {
+            old.flush();
+        }
+        synchronized (this) {
+            old = coalescer;
+            coalescer = null;
+            if (maxDelay > 0) {
+                coalescer = new BLEWriteCoalescer(new BLEWriteCoalescer.Sink() {
+                    @Override
+                    public void onFlush(byte[] data, int offset, int len) {
+                        writeQueue.offer(data, offset, len);
+                    }
+                }, maxDelay, maxSize);
+            }
+        }
+        if (old != null) {
+            // 交换前后仍在写入旧合并缓存的数据
+            old.flush();
+            old.release();
+        }
+    }
+
+    /**
+     * 设置发送队列容量，待发字节数达到高水位时回调NOT_WRITABLE，降到低水位时回调WRITABLE，
+     * 超过容量时按policy处理
+     *
+     * @param capacity      容量，字节，小于等于0时不限制
+     * @param highWatermark 高水位，小于等于0时等于容量
+     * @param lowWatermark  低水位，小于0时为高水位的一半
+     */
+    public void setWriteQueueLimit(int capacity, int highWatermark, int lowWatermark, BLEOverflowPolicy policy) {
+        writeQueue.setLimit(capacity, highWatermark, lowWatermark, policy);
+    }
+
+    /**
+     * 获取发送队列中待发的字节数
+     */
+    public int getWriteQueueBytes() {
+        return writeQueue.getQueuedBytes();
     }
 
     /**
@@ -76,6 +225,7 @@ public class BLEClientClassic {
             return;
         }
         disconnect();
+        reconnectSupervisor.watch(bluetoothDevice);
         startConnectThread(bluetoothDevice, null);
     }
 
@@ -83,33 +233,60 @@ public class BLEClientClassic {
      * 发送数据,未连接会服务器自动连接
      */
     public void write(BluetoothDevice bluetoothDevice, String msg) {
+        write(bluetoothDevice, msg.getBytes());
+    }
+
+    /**
+     * 发送数据,未连接会服务器自动连接
+     */
+    public void write(BluetoothDevice bluetoothDevice, byte[] data) {
+        write(bluetoothDevice, data, 0, data.length);
+    }
+
+    /**
+     * 发送数据,未连接会服务器自动连接
+     */
+    public void write(BluetoothDevice bluetoothDevice, byte[] data, int offset, int len) {
+        BLECompressor compressor = this.compressor;
+        if (compressor != null) {
+            data = compressor.encode(data, offset, len);
+            offset = 0;
+            len = data.length;
+        }
         if (isConnected() && bluetoothDevice.equals(bluetoothDeviceConnected)) {
             // 已连接该设备服务器,直接发送
-            doWrite(msg);
+            doWrite(data, offset, len);
         } else {
-            // 未连接该设备，关闭已连接设备
+            // 未连接该设备，关闭已连接设备，连接成功后再发送
             disconnect();
-            startConnectThread(bluetoothDevice, msg);
+            reconnectSupervisor.watch(bluetoothDevice);
+            startConnectThread(bluetoothDevice, Arrays.copyOfRange(data, offset, offset + len));
         }
     }
 
     /**
      * 发送数据
      */
-    private void doWrite(String msg) {
+    private void doWrite(byte[] data, int offset, int len) {
+        BLEWriteCoalescer coalescer = this.coalescer;
+        if (coalescer != null) {
+            coalescer.write(data, offset, len);
+        } else {
+            writeQueue.offer(data, offset, len);
+        }
+    }
+
+    /**
+     * 写入Socket
+     */
+    private void writeSocket(byte[] data, int offset, int len) {
         OutputStream outputStream = null;
         try {
             outputStream = bluetoothSocket.getOutputStream();
-            outputStream.write(msg.getBytes());
+            outputStream.write(data, offset, len);
             notifyEvent(BLEEvent.WRITE_SUCCESS, "发送数据成功");
-            LogUtils.i("发送成功：" + msg);
+            LogUtils.i("发送成功：" + len + "字节");
         } catch (Exception e) {
-            if (!onDestroy && bluetoothDeviceConnected != null) {
-                // 重新连接
-                BluetoothDevice bluetoothDevice = bluetoothDeviceConnected;
-                disconnect();
-                write(bluetoothDevice, msg);
-            }
             notifyEvent(BLEEvent.WRITE_FAILED, "发送数据失败" + e.toString());
             LogUtils.e("发送数据失败" + e.toString());
             try {
@@ -119,13 +296,26 @@ public class BLEClientClassic {
             } catch (Exception e1) {
                 LogUtils.e("关闭发送数据流失败" + e.toString());
             }
+            // 连接已失效，由自动重连退避重试，不在发送线程中递归重连
+            onConnectionLost();
+        }
+    }
+
+    /**
+     * 连接意外断开，开启自动重连时重连
+     */
+    private void onConnectionLost() {
+        BluetoothDevice device = bluetoothDeviceConnected;
+        close();
+        if (device != null && reconnectSupervisor.onConnectionLost(device, BLEReconnectSupervisor.STATUS_UNKNOWN)) {
+            notifyEvent(BLEEvent.RECONNECTING, "自动重连中");
         }
     }
 
     /**
      * 开启连接线程
      */
-    private void startConnectThread(BluetoothDevice bluetoothDevice, String msg) {
+    private void startConnectThread(BluetoothDevice bluetoothDevice, byte[] data) {
         if (bluetoothDeviceConnecting != null) {
             LogUtils.w("正在连接中");
             return;
@@ -133,7 +323,7 @@ public class BLEClientClassic {
         LogUtils.d("开始蓝牙连接线程");
         stopConnectThread();
         bluetoothDeviceConnecting = bluetoothDevice;
-        connectThread = new ConnectThread(bluetoothDevice, msg);
+        connectThread = new ConnectThread(bluetoothDevice, data);
         connectThread.start();
     }
 
@@ -170,10 +360,57 @@ public class BLEClientClassic {
     }
 
     /**
-     * 断开连接
+     * 断开连接，停止自动重连
      */
     public boolean disconnect() {
+        reconnectSupervisor.cancel();
+        close();
+        return true;
+    }
+
+    /**
+     * 设置是否在连接意外断开后自动重连，默认关闭
+     */
+    public void setAutoReconnect(boolean enable) {
+        reconnectSupervisor.setEnabled(enable);
+    }
+
+    /**
+     * 设置自动重连的退避参数：初始延迟（毫秒），每次加倍并加随机抖动，最大延迟（毫秒），最多重连次数（小于等于0时不限次数）
+     */
+    public void setReconnectBackoff(long initialDelay, long maxDelay, int maxAttempts) {
+        reconnectSupervisor.setBackoff(initialDelay, maxDelay, maxAttempts);
+    }
+
+    /**
+     * 是否正在自动重连
+     */
+    public boolean isReconnecting() {
+        return reconnectSupervisor.isReconnecting();
+    }
+
+    /**
+     * 获取自动重连统计
+     */
+    public BLEReconnectStats getReconnectStats() {
+        return reconnectSupervisor.getStats();
+    }
+
+    /**
+     * 关闭连接，不影响自动重连
+     */
+    private void close() {
         LogUtils.d("断开蓝牙连接");
+        if (coalescer != null) {
+            coalescer.clear();
+        }
+        if (compressor != null) {
+            compressor.reset();
+        }
+        if (receivePipeline != null) {
+            receivePipeline.reset();
+        }
+        writeQueue.clear();
         try {
             bluetoothDeviceConnecting = null;
             bluetoothDeviceConnected = null;
@@ -185,7 +422,6 @@ public class BLEClientClassic {
         }
         stopConnectThread();
         stopReadThread();
-        return true;
     }
 
     /**
@@ -194,6 +430,10 @@ public class BLEClientClassic {
     public void onDestroy() {
         onDestroy = true;
         disconnect();
+        writeQueue.release();
+        if (coalescer != null) {
+            coalescer.release();
+        }
     }
 
     /**
@@ -217,41 +457,94 @@ public class BLEClientClassic {
         this.callback.onBLEEvent(event, obj);
     }
 
+    /**
+     * 解压出完整消息
+     */
+    private final BLECompressor.Callback readCallback = new BLECompressor.Callback() {
+        @Override
+        public void onMessage(byte[] data, int offset, int len) {
+            receive(data, offset, len);
+        }
+    };
+
+    /**
+     * 接收管道输出
+     */
+    private final BLEReceivePipeline.Receiver pipelineReceiver = new BLEReceivePipeline.Receiver() {
+        @Override
+        public void onData(byte[] data, int offset, int len) {
+            notifyRead(data, offset, len);
+        }
+
+        @Override
+        public void onObject(Object obj) {
+            notifyEvent(BLEEvent.READ_OBJECT, obj);
+        }
+    };
+
+    /**
+     * 经过接收管道后回调收到的数据
+     */
+    private void receive(byte[] data, int offset, int len) {
+        BLEReceivePipeline receivePipeline = this.receivePipeline;
+        if (receivePipeline != null) {
+            receivePipeline.feed(data, offset, len, pipelineReceiver);
+        } else {
+            notifyRead(data, offset, len);
+        }
+    }
+
+    /**
+     * 回调收到的数据，data只在调用期间有效
+     */
+    private void notifyRead(byte[] data, int offset, int len) {
+        LogUtils.d("已经接收到数据：" + len + "字节");
+        if (receiveBytes) {
+            notifyEvent(BLEEvent.READ_DATA, Arrays.copyOfRange(data, offset, offset + len));
+        } else {
+            notifyEvent(BLEEvent.READ_SUCCESS, new String(data, offset, len));
+        }
+    }
+
     /**
      * 客户端连接线程
      */
     private class ConnectThread extends Thread {
 
         private BluetoothDevice bluetoothDevice;
-        private String msg;
+        private byte[] data;
 
-        public ConnectThread(BluetoothDevice bluetoothDevice, String msg) {
+        public ConnectThread(BluetoothDevice bluetoothDevice, byte[] data) {
             this.bluetoothDevice = bluetoothDevice;
-            this.msg = msg;
+            this.data = data;
         }
 
         @Override
         public void run() {
             try {
                 LogUtils.d("连接服务中，" + bluetoothDevice.getName());
-                bluetoothSocket = bluetoothDevice.createRfcommSocketToServiceRecord(UUID.fromString(BLEUtils.BLE_CLASSIC_UUID));
+                bluetoothSocket = bluetoothDevice.createRfcommSocketToServiceRecord(uuid);
                 notifyEvent(BLEEvent.CONNECTING, "连接服务中");
                 bluetoothSocket.connect();
                 // 保存连接成功的设备
                 bluetoothDeviceConnected = bluetoothDeviceConnecting;
                 bluetoothDeviceConnecting = null;
+                reconnectSupervisor.onConnected();
                 notifyEvent(BLEEvent.CONNECT_SUCCESS, "连接服务成功");
 
                 // 开启读线程
                 startReadThread();
                 // 发送数据
-                if (!TextUtils.isEmpty(msg)) {
-                    doWrite(msg);
+                if (data != null && data.length > 0) {
+                    doWrite(data, 0, data.length);
                 }
             } catch (Exception e) {
                 LogUtils.e("连接服务器失败", e);
-                disconnect();
+                close();
                 notifyEvent(BLEEvent.READ_FAILED, "连接服务器失败" + e.toString());
+                if (reconnectSupervisor.onConnectionLost(bluetoothDevice, BLEReconnectSupervisor.STATUS_UNKNOWN)) {
+                    notifyEvent(BLEEvent.RECONNECTING, "自动重连中");
+                }
             }
         }
     }
@@ -262,29 +555,28 @@ public class BLEClientClassic {
     private class ReadThread extends Thread {
         @Override
         public void run() {
-            byte[] buffer = new byte[1024];
+            // 读缓存在整个连接期间复用，解压时直接在缓存上解析，否则回调时只复制一次
+            byte[] buffer = new byte[readBufferSize];
             int bytes;
             InputStream inputStream = null;
+            BluetoothSocket socket = bluetoothSocket;
             try {
-                inputStream = bluetoothSocket.getInputStream();
+                inputStream = socket.getInputStream();
                 while (!isInterrupted() && (bytes = inputStream.read(buffer)) > 0) {
                     // 循环读取
-                    byte[] buf_data = new byte[bytes];
-                    for (int i = 0; i < bytes; i++) {
-                        buf_data[i] = buffer[i];
+                    BLECompressor compressor = BLEClientClassic.this.compressor;
+                    if (compressor != null) {
+                        compressor.decode(buffer, 0, bytes, readCallback);
+                    } else {
+                        receive(buffer, 0, bytes);
                     }
-                    String msg = new String(buf_data);
-                    notifyEvent(BLEEvent.READ_SUCCESS, msg);
-                    LogUtils.i("已经接收到数据：" + msg);
                 }
             } catch (Exception e) {
-//                if (!onDestroy && bluetoothDeviceConnected != null) {
-//                    BluetoothDevice bluetoothDevice = bluetoothDeviceConnected;
-//                    disconnect();
-//                    write(bluetoothDevice, "1");
-//                }
                 notifyEvent(BLEEvent.READ_FAILED, "读取数据失败" + e.toString());
-                disconnect();
+                if (socket == bluetoothSocket) {
+                    // 已重连时不关闭新的连接
+                    onConnectionLost();
+                }
                 LogUtils.e("读取数据失败", e);
                 try {
                     if (inputStream != null) {
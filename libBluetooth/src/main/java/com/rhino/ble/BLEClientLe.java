@@ -9,20 +9,53 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.content.Context;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.rhino.log.LogUtils;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 
 /**
  * @author rhino
  * @since Create on 2020/08/29.
  **/
 public class BLEClientLe {
+
+    /**
+     * 默认ATT_MTU
+     */
+    public static final int DEFAULT_MTU = 23;
+    /**
+     * ATT协议头长度（opcode + handle），每包有效数据 = MTU - 3
+     */
+    private static final int ATT_HEADER_SIZE = 3;
+    /**
+     * Generic Attribute服务
+     */
+    private static final UUID UUID_GENERIC_ATTRIBUTE = UUID.fromString("00001801-0000-1000-8000-00805f9b34fb");
+    /**
+     * Service Changed特征，设备的服务变化时发出指示
+     */
+    private static final UUID UUID_SERVICE_CHANGED = UUID.fromString("00002a05-0000-1000-8000-00805f9b34fb");
+    /**
+     * GATT正忙时描述符的最大重试次数
+     */
+    private static final int DESCRIPTOR_RETRY_COUNT = 10;
+    /**
+     * 描述符重试的延迟，毫秒，每次递增
+     */
+    private static final long DESCRIPTOR_RETRY_DELAY = 20;
+
     /**
      * 上下文
      */
@@ -49,9 +82,54 @@ public class BLEClientLe {
      */
     private ConnectThread connectThread;
     /**
-     * 扫描蓝牙服务线程
+     * connectGatt是否使用autoConnect，设备不在范围内时由系统在后台等待设备出现
+     */
+    private volatile boolean autoConnect;
+    /**
+     * 扫描蓝牙服务
      */
-    private DiscoverServicesThread discoverServicesThread;
+    private final BLEServiceDiscovery serviceDiscovery = new BLEServiceDiscovery(new BLEServiceDiscovery.Target() {
+        @Override
+        public boolean discoverServices() {
+            BluetoothGatt gatt = bluetoothGatt;
+            return gatt != null && gatt.discoverServices();
+        }
+
+        @Override
+        public void onDiscoverFailed(String message) {
+            // 没有服务无法通信，关闭GATT，否则一直处于连接中
+            BluetoothDevice device = bluetoothDeviceConnecting;
+            close();
+            notifyEvent(BLEEvent.CONNECT_FAILED, message);
+            if (reconnectSupervisor.onConnectionLost(device, BLEReconnectSupervisor.STATUS_UNKNOWN)) {
+                notifyEvent(BLEEvent.RECONNECTING, "自动重连中");
+            }
+        }
+    });
+    /**
+     * 自动重连
+     */
+    private final BLEReconnectSupervisor reconnectSupervisor = new BLEReconnectSupervisor(new BLEReconnectSupervisor.Target() {
+        @Override
+        public void reconnect(BluetoothDevice device) {
+            close();
+            startConnectThread(device);
+        }
+
+        @Override
+        public void onReconnectFailed(BluetoothDevice device, String message) {
+            notifyEvent(BLEEvent.RECONNECT_FAILED, message);
+        }
+    });
+
+    /**
+     * GATT服务缓存
+     */
+    private BLEGattCache gattCache;
+    /**
+     * 是否使用GATT服务缓存
+     */
+    private volatile boolean gattCacheEnabled = true;
 
     /**
      * 是否销毁
@@ -64,36 +142,388 @@ public class BLEClientLe {
      */
     private BluetoothGattCharacteristic bluetoothGattCharacteristic;
     /**
-     * 服务UUID
+     * 读写特征的UUID，扫描服务时按哈希查找，修改时整体替换
+     */
+    private volatile Set<UUID> characteristicUuids;
+    /**
+     * 通知描述符的UUID
+     */
+    private volatile UUID descriptorUuid;
+    /**
+     * 订阅的特征，按特征UUID索引，修改时整体替换
      */
-    private String serviceUUID;
+    private volatile Map<UUID, Subscription> subscriptions = new HashMap<>();
     /**
-     * 读写UUID
+     * 等待写入的描述符，GATT同一时刻只能有一个操作，在onDescriptorWrite中依次写入；
+     * 写入期间暂停发送队列，发送队列的包还在途或GATT正忙时延迟重试
      */
-    private String readWriteUUID;
+    private final ArrayDeque<BluetoothGattDescriptor> descriptorQueue = new ArrayDeque<>();
     /**
-     * 线程池
+     * 是否有描述符正在写入
      */
-    private ExecutorService mThreadService;
+    private boolean descriptorWriting;
+    /**
+     * 队首描述符已重试的次数
+     */
+    private int descriptorRetry;
+    /**
+     * 描述符重试
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable descriptorRetryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            BluetoothGatt gatt = bluetoothGatt;
+            if (!writeNextDescriptor(false) && gatt != null) {
+                onDescriptorsWritten(gatt);
+            }
+        }
+    };
     /**
-     * 发送的失败标志位
+     * 发送队列
      */
-    private boolean sendFailed = true;
+    private final BLEWriteQueue writeQueue = new BLEWriteQueue(new BLEWriteQueue.Target() {
+        @Override
+        public boolean isWritable() {
+            return isConnected();
+        }
+
+        @Override
+        public int getPacketSize() {
+            return BLEClientLe.this.getPacketSize();
+        }
+
+        @Override
+        public boolean supportsNoResponse() {
+            BluetoothGattCharacteristic characteristic = bluetoothGattCharacteristic;
+            return characteristic != null
+                    && (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+        }
+
+        @Override
+        public boolean writePacket(byte[] packet, boolean noResponse) {
+            BluetoothGatt gatt = bluetoothGatt;
+            BluetoothGattCharacteristic characteristic = bluetoothGattCharacteristic;
+            if (gatt == null || characteristic == null) {
+                return false;
+            }
+            characteristic.setWriteType(noResponse
+                    ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                    : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            characteristic.setValue(packet);
+            return gatt.writeCharacteristic(characteristic);
+        }
+
+        @Override
+        public void onWriteComplete(BLEWriteFuture future) {
+            if (future.isSuccess()) {
+                notifyEvent(BLEEvent.WRITE_SUCCESS, "发送数据成功");
+            } else {
+                LogUtils.e("发送失败，放弃剩余数据：" + future.getMessage());
+                notifyEvent(BLEEvent.WRITE_FAILED, future.getMessage());
+            }
+        }
+
+        @Override
+        public void onBulkModeChanged(boolean bulk) {
+            BluetoothGatt gatt = bluetoothGatt;
+            if (gatt == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                return;
+            }
+            int priority = bulk ? BluetoothGatt.CONNECTION_PRIORITY_HIGH : idleConnectionPriority;
+            LogUtils.d("请求连接优先级：" + priority + ", " + gatt.requestConnectionPriority(priority));
+            if (bulk && bulkPreferPhy2M && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                LogUtils.d("请求2M PHY");
+                gatt.setPreferredPhy(BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_LE_2M_MASK,
+                        BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+            }
+        }
+
+        @Override
+        public void onWritableChanged(boolean writable) {
+            notifyEvent(writable ? BLEEvent.WRITABLE : BLEEvent.NOT_WRITABLE,
+                    writable ? "发送队列已降到低水位" : "发送队列已达到高水位");
+        }
+    });
     /**
      * 发送数据速度
      * 0 高
      * 1 中
      * 2 低
+     *
+     * @deprecated 已由每个连接的自适应发送节奏代替，设置不再生效
      */
+    @Deprecated
     public static int sendSpeed = 1;
+    /**
+     * 大数据发送模式下是否请求2M PHY
+     */
+    private boolean bulkPreferPhy2M = true;
+    /**
+     * 退出大数据发送模式后恢复的连接优先级
+     */
+    private int idleConnectionPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+    /**
+     * 发送合并，未开启时为null
+     */
+    private volatile BLEWriteCoalescer coalescer;
+    /**
+     * 合并发送的最大长度，小于等于0时为一包的长度（MTU - 3）
+     */
+    private int coalesceMaxSize;
+    /**
+     * 收到数据时是否回调原始byte[]
+     */
+    private boolean receiveBytes = false;
+    /**
+     * 消息压缩，未开启时为null
+     */
+    private volatile BLECompressor compressor;
+    /**
+     * 接收批量回调，未开启时为null
+     */
+    private volatile BLEReceiveBatcher receiveBatcher;
+    /**
+     * 正在处理的通知的到达时间，只在分发线程中访问
+     */
+    private long receiveTimeNanos;
+    /**
+     * 接收管道，未设置时每个通知回调一次
+     */
+    private volatile BLEReceivePipeline receivePipeline;
+    /**
+     * 连接后请求协商的MTU，小于等于{@link #DEFAULT_MTU}时不请求
+     */
+    private int requestMtu = 517;
+    /**
+     * 当前协商成功的MTU
+     */
+    private int mtu = DEFAULT_MTU;
 
 
     public BLEClientLe(Context context, BluetoothAdapter bluetoothAdapter, BLECallback callback) {
         this.context = context;
+        this.gattCache = new BLEGattCache(context);
+        this.characteristicUuids = Collections.singleton(UUID.fromString(BLEUtils.BLE_lE_UUID_SERVICE_EIGENVALUE_SEND));
+        this.descriptorUuid = UUID.fromString(BLEUtils.BLE_LE_UUID_SERVICE_EIGENVALUE_READ);
         this.bluetoothAdapter = bluetoothAdapter;
         this.callback = callback;
     }
 
+    /**
+     * 设置连接后请求协商的MTU（需Android 5.0+），小于等于{@link #DEFAULT_MTU}时不请求
+     */
+    public void setRequestMtu(int requestMtu) {
+        this.requestMtu = requestMtu;
+    }
+
+    /**
+     * 设置每包等待发送回调的超时时间，毫秒
+     */
+    public void setWriteTimeout(long writeTimeout) {
+        writeQueue.setWriteTimeout(writeTimeout);
+    }
+
+    /**
+     * 设置是否使用无响应写（WRITE_TYPE_NO_RESPONSE）流式发送，特征不支持时自动使用默认写
+     */
+    public void setWriteNoResponse(boolean writeNoResponse) {
+        writeQueue.setWriteNoResponse(writeNoResponse);
+    }
+
+    /**
+     * 设置扫描服务的超时时间（毫秒）和失败后的重试次数
+     */
+    public void setDiscoverServices(long timeout, int retryCount) {
+        serviceDiscovery.setTimeout(timeout);
+        serviceDiscovery.setRetryCount(retryCount);
+    }
+
+    /**
+     * 设置是否使用可靠写：每条消息不分包，整条通过一次有响应写发送，超过一包时协议栈按
+     * Prepare Write + Execute Write长写，对端要么收到整条消息要么什么都收不到，失败时整条重发；忽略无响应写设置
+     * 单条消息最长{@link BLEWriteQueue#MAX_RELIABLE_LENGTH}（512）字节，更长的消息直接回调失败
+     */
+    public void setReliableWrite(boolean reliableWrite) {
+        writeQueue.setReliableWrite(reliableWrite);
+    }
+
+    /**
+     * 设置发送队列容量，待发字节数达到高水位时回调NOT_WRITABLE，降到低水位时回调WRITABLE，
+     * 超过容量时按policy处理
+     *
+     * @param capacity      容量，字节，小于等于0时不限制
+     * @param highWatermark 高水位，小于等于0时等于容量
+     * @param lowWatermark  低水位，小于0时为高水位的一半
+     */
+    public void setWriteQueueLimit(int capacity, int highWatermark, int lowWatermark, BLEOverflowPolicy policy) {
+        writeQueue.setLimit(capacity, highWatermark, lowWatermark, policy);
+    }
+
+    /**
+     * 获取发送队列中待发的字节数
+     */
+    public int getWriteQueueBytes() {
+        return writeQueue.getQueuedBytes();
+    }
+
+    /**
+     * 设置无响应写时允许在途的最大包数，实际在途包数根据回调情况在1到该值之间自适应调整
+     */
+    public void setWriteCredits(int writeCredits) {
+        writeQueue.setWriteCredits(writeCredits);
+    }
+
+    /**
+     * 设置合并发送，maxDelay毫秒内连续发送的小消息合并成满包发送，maxDelay小于等于0时关闭
+     * maxSize小于等于0时按一包的长度（MTU - 3）合并，合并后每次发送回调一次WRITE_SUCCESS或WRITE_FAILED
+     */
+    public void setCoalesce(long maxDelay, int maxSize) {
+        // 不在锁内输出，发送队列BLOCK策略阻塞时不会卡住其它线程
+        BLEWriteCoalescer old = coalescer;
+        if (old != null) {
+            old.flush();
+        }
+        synchronized (this) {
+            old = coalescer;
+            coalesceMaxSize = maxSize;
+            coalescer = null;
+            if (maxDelay > 0) {
+                coalescer = new BLEWriteCoalescer(new BLEWriteCoalescer.Sink() {
+                    @Override
+                    public void onFlush(byte[] data, int offset, int len) {
+                        writeQueue.offer(data, offset, len, BLEWriteFuture.PRIORITY_NORMAL);
+                    }
+                }, maxDelay, getCoalesceMaxSize());
+            }
+        }
+        if (old != null) {
+            // 交换前后仍在写入旧合并缓存的数据
+            old.flush();
+            old.release();
+        }
+    }
+
+    /**
+     * 获取合并发送的最大长度
+     */
+    private int getCoalesceMaxSize() {
+        return coalesceMaxSize > 0 ? coalesceMaxSize : getPacketSize();
+    }
+
+    /**
+     * 设置收到数据时是否以READ_DATA事件回调原始byte[]，默认以READ_SUCCESS回调String
+     */
+    public void setReceiveBytes(boolean receiveBytes) {
+        this.receiveBytes = receiveBytes;
+    }
+
+    /**
+     * 设置收到数据的回调Executor，null时使用默认的分发线程
+     * GATT回调线程只复制数据后立即返回，解压、接收管道和READ_*回调都在该Executor中按到达顺序执行
+     */
+    public void setReceiveExecutor(Executor executor) {
+        receiveDispatcher.setExecutor(executor);
+    }
+
+    /**
+     * 设置批量回调：maxDelay毫秒内或每maxCount包收到的数据合并成一个{@link BLEReceiveBatch}，以READ_BATCH回调一次，
+     * 每包附带到达时间（elapsedRealtimeNanos），都小于等于0时关闭
+     * 在接收分发线程中生效，之前收到的数据仍按原来的设置回调
+     */
+    public void setReceiveBatch(final long maxDelay, final int maxCount) {
+        receiveDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                BLEReceiveBatcher old = receiveBatcher;
+                if (old != null) {
+                    old.flush();
+                    old.release();
+                }
+                receiveBatcher = maxDelay > 0 || maxCount > 0 ? new BLEReceiveBatcher(new BLEReceiveBatcher.Sink() {
+                    @Override
+                    public void onBatch(BLEReceiveBatch batch) {
+                        LogUtils.d("获取到数据:" + batch);
+                        notifyEvent(BLEEvent.READ_BATCH, batch);
+                    }
+                }, receiveDispatcher, maxDelay, maxCount) : null;
+            }
+        });
+    }
+
+    /**
+     * 设置消息压缩，双方必须设置相同的压缩参数，null时关闭
+     */
+    public void setCompressor(BLECompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    public BLECompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * 设置接收分帧，分包到达的数据拼成完整的帧后再回调，null时每个通知回调一次
+     * 如{@link BLEFramer.LengthPrefix}、{@link BLEFramer.Delimiter}、{@link BLEFramer.FixedSize}
+     */
+    public void setFramer(BLEFramer framer) {
+        setReceivePipeline(framer != null ? new BLEReceivePipeline().addFramer(framer) : null);
+    }
+
+    /**
+     * 设置接收管道，如分帧、校验、解码，设置了解码器时以READ_OBJECT回调解码后的对象，null时每个通知回调一次
+     */
+    public void setReceivePipeline(BLEReceivePipeline receivePipeline) {
+        this.receivePipeline = receivePipeline;
+    }
+
+    /**
+     * 设置大数据发送模式（需Android 5.0+）：待发数据达到threshold字节时请求高连接优先级，
+     * preferPhy2M为true时同时请求2M PHY（需Android 8.0+），发送队列清空后恢复空闲连接优先级
+     *
+     * @param threshold 小于等于0时关闭
+     */
+    public void setBulkTransfer(int threshold, boolean preferPhy2M) {
+        this.bulkPreferPhy2M = preferPhy2M;
+        writeQueue.setBulkThreshold(threshold);
+    }
+
+    /**
+     * 设置退出大数据发送模式后恢复的连接优先级，
+     * {@link BluetoothGatt#CONNECTION_PRIORITY_BALANCED}或{@link BluetoothGatt#CONNECTION_PRIORITY_LOW_POWER}
+     */
+    public void setIdleConnectionPriority(int idleConnectionPriority) {
+        this.idleConnectionPriority = idleConnectionPriority;
+    }
+
+    /**
+     * 获取当前连接发送回调的平滑往返时间，毫秒
+     */
+    public long getWriteRttMillis() {
+        return writeQueue.getRttMillis();
+    }
+
+    /**
+     * 获取当前连接的发送节奏（在途窗口、包间隔、往返时间等）
+     */
+    public String getWritePacerStats() {
+        return writeQueue.getPacerStats();
+    }
+
+    /**
+     * 获取当前协商成功的MTU
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * 获取每包可发送的数据长度
+     */
+    public int getPacketSize() {
+        return mtu - ATT_HEADER_SIZE;
+    }
+
     /**
      * 是否已连接
      */
@@ -105,93 +535,106 @@ public class BLEClientLe {
      * 连接服务器
      */
     public void connect(BluetoothDevice bluetoothDevice) {
+        connect(bluetoothDevice, false);
+    }
+
+    /**
+     * 连接服务器
+     *
+     * @param autoConnect connectGatt是否使用autoConnect：true时不会超时，设备进入范围后由系统连接，
+     *                    适合通过MAC直接重连已知设备；false时直接连接，约30秒未连接成功则失败
+     */
+    public void connect(BluetoothDevice bluetoothDevice, boolean autoConnect) {
         if (isConnected() && bluetoothDevice.equals(bluetoothDeviceConnected)) {
             notifyEvent(BLEEvent.CONNECTED, "已连接服务器");
             return;
         }
-        disconnect();
-        startConnectThread(bluetoothDevice);
+        this.autoConnect = autoConnect;
+        connectDevice(bluetoothDevice);
     }
 
     /**
      * 发送数据,未连接会服务器自动连接
      */
     public void write(BluetoothDevice bluetoothDevice, String msg) {
+        write(bluetoothDevice, msg.getBytes());
+    }
+
+    /**
+     * 发送数据,未连接会服务器自动连接
+     */
+    public void write(BluetoothDevice bluetoothDevice, byte[] data) {
+        write(bluetoothDevice, data, 0, data.length);
+    }
+
+    /**
+     * 发送数据,未连接会服务器自动连接
+     * 数据异步分包发送，收到WRITE_SUCCESS或WRITE_FAILED之前不要修改data
+     */
+    public void write(BluetoothDevice bluetoothDevice, byte[] data, int offset, int len) {
         if (isConnected() && bluetoothDevice.equals(bluetoothDeviceConnected)) {
             // 已连接该设备服务器,直接发送
-            doWrite(msg);
+            doWrite(data, offset, len);
         } else {
             // 未连接该设备，关闭已连接设备
-            disconnect();
-            startConnectThread(bluetoothDevice);
+            connectDevice(bluetoothDevice);
         }
     }
 
     /**
-     * 发送数据
+     * 发送数据，返回该消息的发送结果，未连接会服务器自动连接（本条消息失败）
+     * 不经过合并发送，入队前先把合并缓存中已写入的数据入队，同一优先级下与之前的write保持顺序；
+     * 高优先级消息在包与包之间插队到低优先级消息之前，对端需要能按消息区分（如使用分帧）
+     * 数据异步分包发送，发送完成之前不要修改data
+     *
+     * @param priority {@link BLEWriteFuture#PRIORITY_HIGH}、{@link BLEWriteFuture#PRIORITY_NORMAL}、{@link BLEWriteFuture#PRIORITY_LOW}
      */
-    private void doWrite(String msg) {
-        LogUtils.d("发送数据:" + msg);
-        sendThread(msg.getBytes());
+    public BLEWriteFuture write(BluetoothDevice bluetoothDevice, byte[] data, int offset, int len, int priority) {
+        if (isConnected() && bluetoothDevice.equals(bluetoothDeviceConnected)) {
+            LogUtils.d("发送数据:" + len + "字节，优先级" + priority);
+            BLECompressor compressor = this.compressor;
+            if (compressor != null) {
+                data = compressor.encode(data, offset, len);
+                offset = 0;
+                len = data.length;
+            }
+            BLEWriteCoalescer coalescer = this.coalescer;
+            if (coalescer != null) {
+                coalescer.flush();
+            }
+            return writeQueue.offer(data, offset, len, priority);
+        }
+        connectDevice(bluetoothDevice);
+        return BLEWriteFuture.failed(len, priority, "未连接");
     }
 
     /**
-     * 线程分包发送数据
+     * 发送数据
      */
-    private void sendThread(final byte[] buff) {
-        if (mThreadService == null) {
-            mThreadService = Executors.newFixedThreadPool(1);
+    private void doWrite(byte[] data, int offset, int len) {
+        LogUtils.d("发送数据:" + len + "字节");
+        BLECompressor compressor = this.compressor;
+        if (compressor != null) {
+            data = compressor.encode(data, offset, len);
+            offset = 0;
+            len = data.length;
         }
-        if (!detectionGattValid()) {
-            return;
+        BLEWriteCoalescer coalescer = this.coalescer;
+        if (coalescer != null) {
+            coalescer.setMaxSize(getCoalesceMaxSize());
+            coalescer.write(data, offset, len);
+        } else {
+            writeQueue.offer(data, offset, len, BLEWriteFuture.PRIORITY_NORMAL);
         }
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                List<byte[]> sendDataArray = getSendDataByte(buff);
-                int number = 0;
-                for (byte[] sendData : sendDataArray) {
-                    threadSleep(5 + 10 * sendSpeed);//每次发包前，延时一会，更容易成功
-                    bluetoothGattCharacteristic.setValue(sendData);
-                    sendFailed = !bluetoothGatt.writeCharacteristic(bluetoothGattCharacteristic);//蓝牙发送数据，一次顶多20字节
-                    if (sendFailed) {
-                        LogUtils.e("发送失败，重新尝试发送");
-                        threadSleep(1000 + 500 * sendSpeed);
-                        sendFailed = !bluetoothGatt.writeCharacteristic(bluetoothGattCharacteristic);
-                        if (sendFailed) {
-                            LogUtils.e("无法发送数据");
-                            return;
-                        }
-                    }
-                    while (!sendFailed) {
-                        threadSleep(10 + 10 * sendSpeed);
-                        number++;
-                        if (number == 40) {
-                            bluetoothGattCharacteristic.setValue(new byte[0]);//额外发送会导致发包重复，所以发一个空包去提醒
-                            sendFailed = !bluetoothGatt.writeCharacteristic(bluetoothGattCharacteristic);
-                            LogUtils.w("第一次额外发送," + sendFailed);
-                        }
-                        if (number == 80) {
-                            bluetoothGattCharacteristic.setValue(new byte[0]);//额外发送会导致发包重复，所以发一个空包去提醒
-                            sendFailed = !bluetoothGatt.writeCharacteristic(bluetoothGattCharacteristic);
-                            LogUtils.w("第二次额外发送," + sendFailed);
-                        }
-                        if (number == 180) {
-                            bluetoothGattCharacteristic.setValue(new byte[0]);//额外发送会导致发包重复，所以发一个空包去提醒
-                            sendFailed = !bluetoothGatt.writeCharacteristic(bluetoothGattCharacteristic);
-                            LogUtils.w("第三次额外发送," + sendFailed);
-                        }
-                        if (number == 300) {
-                            sendFailed = true;
-                            LogUtils.e("发送失败，关闭线程");
-                            return;
-                        }
-                    }
-                    number = 0;
-                }
-            }
-        };
-        mThreadService.execute(runnable);
+    }
+
+    /**
+     * 断开当前连接并连接设备，之后该设备意外断开时自动重连
+     */
+    private void connectDevice(BluetoothDevice bluetoothDevice) {
+        disconnect();
+        reconnectSupervisor.watch(bluetoothDevice);
+        startConnectThread(bluetoothDevice);
     }
 
     /**
@@ -209,16 +652,6 @@ public class BLEClientLe {
         connectThread.start();
     }
 
-    /**
-     * 开启扫描蓝牙服务线程
-     */
-    private void startDiscoverServicesThread() {
-        LogUtils.d("开始扫描服务线程");
-        stopDiscoverServicesThread();
-        discoverServicesThread = new DiscoverServicesThread();
-        discoverServicesThread.start();
-    }
-
     /**
      * 停止连接线程
      */
@@ -231,31 +664,85 @@ public class BLEClientLe {
     }
 
     /**
-     * 停止扫描蓝牙服务线程
+     * 断开连接，停止自动重连
      */
-    private void stopDiscoverServicesThread() {
-        LogUtils.d("停止扫描服务线程");
-        if (discoverServicesThread != null) {
-            discoverServicesThread.interrupt();
-            discoverServicesThread = null;
-        }
+    public boolean disconnect() {
+        reconnectSupervisor.cancel();
+        close();
+        return true;
     }
 
     /**
-     * 断开连接
+     * 设置是否在连接意外断开后自动重连，默认关闭
      */
-    public boolean disconnect() {
+    public void setAutoReconnect(boolean enable) {
+        reconnectSupervisor.setEnabled(enable);
+    }
+
+    /**
+     * 设置自动重连的退避参数：初始延迟（毫秒），每次加倍并加随机抖动，最大延迟（毫秒），最多重连次数（小于等于0时不限次数）
+     */
+    public void setReconnectBackoff(long initialDelay, long maxDelay, int maxAttempts) {
+        reconnectSupervisor.setBackoff(initialDelay, maxDelay, maxAttempts);
+    }
+
+    /**
+     * 是否正在自动重连
+     */
+    public boolean isReconnecting() {
+        return reconnectSupervisor.isReconnecting();
+    }
+
+    /**
+     * 获取自动重连统计
+     */
+    public BLEReconnectStats getReconnectStats() {
+        return reconnectSupervisor.getStats();
+    }
+
+    /**
+     * 关闭连接，不影响自动重连
+     */
+    private void close() {
         LogUtils.d("断开蓝牙连接");
         bluetoothDeviceConnecting = null;
         bluetoothDeviceConnected = null;
+        mtu = DEFAULT_MTU;
+        if (coalescer != null) {
+            coalescer.clear();
+        }
+        if (compressor != null) {
+            compressor.reset();
+        }
+        receiveDispatcher.clear();
+        synchronized (descriptorQueue) {
+            descriptorQueue.clear();
+            descriptorWriting = false;
+            descriptorRetry = 0;
+            handler.removeCallbacks(descriptorRetryRunnable);
+        }
+        writeQueue.resume();
+        final BLEReceiveBatcher receiveBatcher = this.receiveBatcher;
+        if (receiveBatcher != null) {
+            // 在接收分发线程中回调已缓存的数据，保持顺序
+            receiveDispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    receiveBatcher.flush();
+                }
+            });
+        }
+        if (receivePipeline != null) {
+            receivePipeline.reset();
+        }
+        writeQueue.clear("断开连接");
         if (bluetoothGatt != null) {
             bluetoothGatt.disconnect();
             bluetoothGatt.close();
             bluetoothGatt = null;
         }
         stopConnectThread();
-        stopDiscoverServicesThread();
-        return true;
+        serviceDiscovery.cancel();
     }
 
     /**
@@ -264,6 +751,14 @@ public class BLEClientLe {
     public void onDestroy() {
         onDestroy = true;
         disconnect();
+        writeQueue.release();
+        receiveDispatcher.release();
+        if (receiveBatcher != null) {
+            receiveBatcher.release();
+        }
+        if (coalescer != null) {
+            coalescer.release();
+        }
     }
 
     /**
@@ -304,54 +799,21 @@ public class BLEClientLe {
                 LogUtils.d("连接服务中，" + bluetoothDevice.getName());
                 notifyEvent(BLEEvent.CONNECTING, "连接服务中");
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                    bluetoothGatt = bluetoothDevice.connectGatt(context, false, bluetoothGattCallback, BluetoothDevice.TRANSPORT_LE);
+                    bluetoothGatt = bluetoothDevice.connectGatt(context, autoConnect, bluetoothGattCallback, BluetoothDevice.TRANSPORT_LE);
                 } else {
-                    bluetoothGatt = bluetoothDevice.connectGatt(context, false, bluetoothGattCallback);
+                    bluetoothGatt = bluetoothDevice.connectGatt(context, autoConnect, bluetoothGattCallback);
                 }
             } catch (Exception e) {
-                disconnect();
+                close();
                 notifyEvent(BLEEvent.CONNECT_FAILED, "连接服务器失败" + e.toString());
                 LogUtils.e("连接服务器失败", e);
+                if (reconnectSupervisor.onConnectionLost(bluetoothDevice, BLEReconnectSupervisor.STATUS_UNKNOWN)) {
+                    notifyEvent(BLEEvent.RECONNECTING, "自动重连中");
+                }
             }
         }
     }
 
-    /**
-     * 获取蓝牙服务
-     */
-    private class DiscoverServicesThread extends Thread {
-
-        public boolean discovered;
-
-        @Override
-        public void run() {
-            // 延迟扫描服务（设置延迟时间过短，很可能发现不了服务）
-            LogUtils.d("延迟扫描服务");
-            threadSleep(1500);
-            if (!detectionGattValid()) {
-                return;
-            }
-            LogUtils.d("开始扫描服务");
-            bluetoothGatt.discoverServices();
-
-            // 扫描服务超时
-            LogUtils.d("开启扫描服务超时监听");
-            threadSleep(5000);
-            if (discovered) {
-                // 已扫描到服务
-                LogUtils.d("已扫描到服务");
-                return;
-            }
-            LogUtils.d("扫描服务超时");
-            notifyEvent(BLEEvent.CONNECT_FAILED, "扫描服务超时");
-        }
-
-        public void setDiscovered(boolean discovered) {
-            this.discovered = discovered;
-        }
-    }
-
-
     /**
      * 蓝牙连接完的所有回调
      */
@@ -360,9 +822,10 @@ public class BLEClientLe {
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
             // 当连接上设备或者失去连接时会回调该函数
-            if (newState == 133) {
-                LogUtils.d("出现133问题，需要扫描重连");
-                notifyEvent(BLEEvent.UNKNOWN, "出现133问题，需要扫描重连");
+            if (status == BLEReconnectSupervisor.STATUS_GATT_ERROR) {
+                // 133通常是系统GATT缓存或连接资源异常，刷新缓存后由自动重连延迟重试
+                LogUtils.d("出现133问题，刷新GATT缓存");
+                refreshGatt(gatt);
             }
             switch (newState) {
                 case BluetoothGatt.STATE_CONNECTED:
@@ -370,44 +833,57 @@ public class BLEClientLe {
                     if (!detectionGattValid()) {
                         return;
                     }
-                    startDiscoverServicesThread();
+                    serviceDiscovery.start(requestMtu(), hasGattCache(gatt));
                     break;
                 case BluetoothGatt.STATE_DISCONNECTED:
-                    LogUtils.d("蓝牙断开");
-                    disconnect();
+                    LogUtils.d("蓝牙断开：" + status);
+                    BluetoothDevice device = bluetoothDeviceConnected != null ? bluetoothDeviceConnected : bluetoothDeviceConnecting;
+                    close();
                     notifyEvent(BLEEvent.DISCONNECTED, "蓝牙断开连接");
+                    if (reconnectSupervisor.onConnectionLost(device, status)) {
+                        notifyEvent(BLEEvent.RECONNECTING, "自动重连中");
+                    }
                     break;
                 default:
                     break;
             }
         }
 
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            super.onMtuChanged(gatt, mtu, status);
+            // MTU协商完成，之后按MTU - 3分包
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                LogUtils.w("MTU协商失败: " + status);
+                serviceDiscovery.onMtuChanged();
+                return;
+            }
+            LogUtils.d("MTU协商成功：" + mtu);
+            BLEClientLe.this.mtu = mtu;
+            serviceDiscovery.onMtuChanged();
+        }
+
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
             super.onCharacteristicWrite(gatt, characteristic, status);
-            // 当向Characteristic写数据时会回调该函数
+            // 当向Characteristic写数据时会回调该函数，归还发送额度
             if (status != BluetoothGatt.GATT_SUCCESS) {
                 LogUtils.w("received: " + status);
-                return;
             }
-            notifyEvent(BLEEvent.WRITE_SUCCESS, "发送数据成功");
-            sendFailed = true;//等到发送数据回调成功才可以继续发送
-            LogUtils.i("发送成功：" + new String(characteristic.getValue()));
+            writeQueue.onPacketWritten(status);
         }
 
         @Override
         public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
             //当向设备Descriptor中写数据时，会回调该函数
             if (status != BluetoothGatt.GATT_SUCCESS) {
-                LogUtils.w("received: " + status);
+                LogUtils.w("received: " + status + ", " + descriptor.getCharacteristic().getUuid());
+            }
+            if (writeNextDescriptor(true)) {
+                // 还有订阅的描述符未写入
                 return;
             }
-            //bluetoothGatt.writeDescriptor(descriptor);
-            //来到这里，才算真正的建立连接
-            LogUtils.d("连接服务器成功，" + gatt.getDevice().getName() + ", " + gatt.getDevice().getAddress());
-            bluetoothDeviceConnected = bluetoothDeviceConnecting;
-            bluetoothDeviceConnecting = null;
-            notifyEvent(BLEEvent.CONNECT_SUCCESS, "连接服务器成功");
+            onDescriptorsWritten(gatt);
         }
 
         @Override
@@ -415,60 +891,137 @@ public class BLEClientLe {
             // 当设备是否找到服务时，会回调该函数
             // （思想：获取该模块的所有服务，然后再轮询服务下面的所有特征的UUID，再与汇承的UUID比较
             // 　　　　找到汇承的UUID后，建立监听模块数据的回调才算完成真正的连接。）
-            if (status != BluetoothGatt.GATT_SUCCESS) {
-                LogUtils.w("received: " + status);
+            if (!serviceDiscovery.onServicesDiscovered(status)) {
+                // 失败时由serviceDiscovery重试
                 return;
             }
             if (!detectionGattValid()) {
                 return;
             }
-            if (discoverServicesThread != null) {
-                discoverServicesThread.setDiscovered(true);
-            }
-            List<BluetoothGattService> bluetoothGattServices = bluetoothGatt.getServices();//获取模块的所有服务
-            LogUtils.d("扫描到服务的个数:" + bluetoothGattServices.size());
-            int i = 0;
-            for (final BluetoothGattService bluetoothGattService : bluetoothGattServices) {
-                ++i;
-                LogUtils.d(i + "号服务的uuid: " + bluetoothGattService.getUuid().toString());
-                List<BluetoothGattCharacteristic> bluetoothGattCharacteristics = bluetoothGattService.getCharacteristics();//获取单个服务下的所有特征
-                int j = 0;
-                for (BluetoothGattCharacteristic bluetoothGattCharacteristic : bluetoothGattCharacteristics) {
-                    ++j;
-                    if (bluetoothGattCharacteristic.getUuid().toString().equals(BLEUtils.BLE_lE_UUID_SERVICE_EIGENVALUE_SEND)) {
-                        LogUtils.d(i + "号服务的第" + j + "个特征" + bluetoothGattCharacteristic.getUuid().toString());
-                        serviceUUID = bluetoothGattService.getUuid().toString();
-                        readWriteUUID = bluetoothGattCharacteristic.getUuid().toString();
-                        BLEClientLe.this.bluetoothGattCharacteristic = bluetoothGattCharacteristic;
-                        LogUtils.d("发送特征：" + BLEClientLe.this.bluetoothGattCharacteristic.getUuid().toString());
-                        bluetoothGatt.setCharacteristicNotification(BLEClientLe.this.bluetoothGattCharacteristic, true);
-
-                        BluetoothGattDescriptor clientConfig = BLEClientLe.this.bluetoothGattCharacteristic.getDescriptor(UUID.fromString(BLEUtils.BLE_LE_UUID_SERVICE_EIGENVALUE_READ));//这个收取数据的UUID
-                        if (clientConfig != null) {
-                            //BluetoothGatt.getService(service)
-                            clientConfig.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);//设置接收模式
-                            bluetoothGatt.writeDescriptor(clientConfig);//必须是设置这个才能监听模块数据
-                        } else {
-                            LogUtils.d("备用方法测试");
-                            BluetoothGattService linkLossService = gatt.getService(bluetoothGattService.getUuid());
-                            setNotification(bluetoothGatt, linkLossService.getCharacteristic(UUID.fromString(BLEUtils.BLE_LE_UUID_SERVICE_EIGENVALUE_READ)), true);
-                        }
-                    } else {
-                        LogUtils.d(i + "号服务的第" + j + "个特征" + bluetoothGattCharacteristic.getUuid().toString());
-                    }
-                }
+            if (!setupCachedLayout(gatt)) {
+                setupDiscoveredLayout(gatt);
+            }
+            registerServiceChanged(gatt);
+            for (Subscription subscription : subscriptions.values()) {
+                enableSubscription(gatt, subscription);
             }
+            writeNextDescriptor(false);
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic) {
             super.onCharacteristicChanged(gatt, characteristic);
             // 设备发出通知时会调用到该接口，蓝牙模块发送的所有数据都会回调到这里
-            String msg = new String(characteristic.getValue());
+            // 只复制数据交给分发线程，不阻塞后续的GATT回调
+            if (UUID_SERVICE_CHANGED.equals(characteristic.getUuid())) {
+                onServiceChanged(gatt);
+                return;
+            }
+            byte[] value = characteristic.getValue();
+            if (value != null) {
+                receiveDispatcher.dispatch(characteristic.getUuid(), value.clone());
+            }
+        }
+
+        /**
+         * Android 12新增的回调，compileSdkVersion较低时不能加@Override，系统仍然会调用
+         */
+        public void onServiceChanged(BluetoothGatt gatt) {
+            LogUtils.d("设备服务变化，删除GATT缓存并重新扫描服务：" + gatt.getDevice().getAddress());
+            gattCache.remove(gatt.getDevice().getAddress());
+            if (isConnected() || bluetoothDeviceConnecting != null) {
+                serviceDiscovery.start(false, false);
+            }
+        }
+    };
+
+    /**
+     * 接收分发
+     */
+    private final BLEReceiveDispatcher receiveDispatcher = new BLEReceiveDispatcher(new BLEReceiveDispatcher.Handler() {
+        @Override
+        public void onReceive(UUID uuid, byte[] data, long timeNanos) {
+            Subscription subscription = subscriptions.get(uuid);
+            if (subscription != null) {
+                subscription.handler.onNotify(subscription.serviceUuid, uuid, data, timeNanos);
+                return;
+            }
+            receiveTimeNanos = timeNanos;
+            BLECompressor compressor = BLEClientLe.this.compressor;
+            if (compressor != null) {
+                compressor.decode(data, 0, data.length, readCallback);
+            } else {
+                receive(data, 0, data.length, true);
+            }
+        }
+    });
+
+    /**
+     * 解压出完整消息
+     */
+    private final BLECompressor.Callback readCallback = new BLECompressor.Callback() {
+        @Override
+        public void onMessage(byte[] data, int offset, int len) {
+            receive(data, offset, len, false);
+        }
+    };
+
+    /**
+     * 接收管道输出
+     */
+    private final BLEReceivePipeline.Receiver pipelineReceiver = new BLEReceivePipeline.Receiver() {
+        @Override
+        public void onData(byte[] data, int offset, int len) {
+            deliver(data, offset, len, false);
+        }
+
+        @Override
+        public void onObject(Object obj) {
+            notifyEvent(BLEEvent.READ_OBJECT, obj);
+        }
+    };
+
+    /**
+     * 经过接收管道后回调收到的数据
+     *
+     * @param owned data是否为新分配的数组，可以直接交给接收方
+     */
+    private void receive(byte[] data, int offset, int len, boolean owned) {
+        BLEReceivePipeline receivePipeline = this.receivePipeline;
+        if (receivePipeline != null) {
+            receivePipeline.feed(data, offset, len, pipelineReceiver);
+        } else {
+            deliver(data, offset, len, owned);
+        }
+    }
+
+    /**
+     * 批量或逐条回调收到的数据
+     */
+    private void deliver(byte[] data, int offset, int len, boolean owned) {
+        BLEReceiveBatcher receiveBatcher = this.receiveBatcher;
+        if (receiveBatcher != null) {
+            receiveBatcher.add(data, offset, len, receiveTimeNanos);
+        } else if (owned && offset == 0 && len == data.length) {
+            notifyRead(data);
+        } else {
+            notifyRead(Arrays.copyOfRange(data, offset, offset + len));
+        }
+    }
+
+    /**
+     * 回调收到的数据
+     */
+    private void notifyRead(byte[] data) {
+        if (receiveBytes) {
+            LogUtils.d("获取到数据:" + data.length + "字节");
+            notifyEvent(BLEEvent.READ_DATA, data);
+        } else {
+            String msg = new String(data);
             LogUtils.d("获取到数据:" + msg);
             notifyEvent(BLEEvent.READ_SUCCESS, msg);
         }
-    };
+    }
 
     private boolean detectionGattValid() {
         if (bluetoothGatt == null) {
@@ -479,6 +1032,315 @@ public class BLEClientLe {
         return true;
     }
 
+    /**
+     * 通过反射调用隐藏的BluetoothGatt.refresh()，清除系统缓存的服务
+     */
+    private static void refreshGatt(BluetoothGatt gatt) {
+        try {
+            Method refresh = gatt.getClass().getMethod("refresh");
+            LogUtils.d("刷新GATT缓存：" + refresh.invoke(gatt));
+        } catch (Exception e) {
+            LogUtils.e("刷新GATT缓存失败", e);
+        }
+    }
+
+    /**
+     * 请求协商MTU，在扫描服务之前调用，避免与其它GATT操作冲突
+     */
+    private boolean requestMtu() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || requestMtu <= DEFAULT_MTU) {
+            return false;
+        }
+        boolean success = bluetoothGatt.requestMtu(requestMtu);
+        LogUtils.d("请求MTU：" + requestMtu + ", " + success);
+        return success;
+    }
+
+    /**
+     * 是否有该设备的GATT缓存
+     */
+    private boolean hasGattCache(BluetoothGatt gatt) {
+        return gattCacheEnabled && gattCache.get(gatt.getDevice().getAddress()) != null;
+    }
+
+    /**
+     * 按GATT缓存直接定位读写特征，不遍历所有服务
+     *
+     * @return 缓存是否可用，句柄、属性或UUID配置与缓存不一致时删除缓存
+     */
+    private boolean setupCachedLayout(BluetoothGatt gatt) {
+        if (!gattCacheEnabled) {
+            return false;
+        }
+        String address = gatt.getDevice().getAddress();
+        BLEGattCache.Layout layout = gattCache.get(address);
+        if (layout == null) {
+            return false;
+        }
+        UUID descriptorUuid = this.descriptorUuid;
+        if (!characteristicUuids.contains(layout.characteristicUuid) || !descriptorUuid.equals(layout.descriptorUuid)) {
+            // 读写特征或描述符的UUID配置已修改
+            LogUtils.d("GATT缓存的UUID配置已修改，重新查找服务：" + address);
+            gattCache.remove(address);
+            return false;
+        }
+        BluetoothGattService service = gatt.getService(layout.serviceUuid);
+        BluetoothGattCharacteristic characteristic = service != null ? service.getCharacteristic(layout.characteristicUuid) : null;
+        if (characteristic == null
+                || service.getInstanceId() != layout.serviceHandle
+                || characteristic.getInstanceId() != layout.characteristicHandle
+                || characteristic.getProperties() != layout.properties
+                || (characteristic.getDescriptor(descriptorUuid) != null) != layout.hasDescriptor) {
+            LogUtils.w("GATT缓存与设备不一致，重新查找服务：" + address);
+            gattCache.remove(address);
+            return false;
+        }
+        LogUtils.d("使用GATT缓存：" + address);
+        setupCharacteristic(gatt, service, characteristic);
+        return true;
+    }
+
+    /**
+     * 遍历所有服务查找读写特征，找到后保存到GATT缓存
+     */
+    private void setupDiscoveredLayout(BluetoothGatt gatt) {
+        // 遍历时不拼接日志字符串，服务较多的设备上也只有哈希查找的开销
+        Set<UUID> characteristicUuids = this.characteristicUuids;
+        UUID descriptorUuid = this.descriptorUuid;
+        for (BluetoothGattService bluetoothGattService : gatt.getServices()) {
+            for (BluetoothGattCharacteristic bluetoothGattCharacteristic : bluetoothGattService.getCharacteristics()) {
+                if (!characteristicUuids.contains(bluetoothGattCharacteristic.getUuid())) {
+                    continue;
+                }
+                setupCharacteristic(gatt, bluetoothGattService, bluetoothGattCharacteristic);
+                if (gattCacheEnabled) {
+                    gattCache.put(gatt.getDevice().getAddress(), new BLEGattCache.Layout(
+                            bluetoothGattService.getUuid(), bluetoothGattService.getInstanceId(),
+                            bluetoothGattCharacteristic.getUuid(), bluetoothGattCharacteristic.getInstanceId(),
+                            bluetoothGattCharacteristic.getProperties(), descriptorUuid,
+                            bluetoothGattCharacteristic.getDescriptor(descriptorUuid) != null));
+                }
+                return;
+            }
+        }
+        LogUtils.w("未找到读写特征：" + characteristicUuids);
+    }
+
+    /**
+     * 设置读写特征并打开通知
+     */
+    private void setupCharacteristic(BluetoothGatt gatt, BluetoothGattService service, BluetoothGattCharacteristic characteristic) {
+        bluetoothGattCharacteristic = characteristic;
+        LogUtils.d("发送特征：" + characteristic.getUuid().toString());
+        gatt.setCharacteristicNotification(characteristic, true);
+
+        BluetoothGattDescriptor clientConfig = characteristic.getDescriptor(descriptorUuid);//这个收取数据的UUID
+        if (clientConfig != null) {
+            //BluetoothGatt.getService(service)
+            clientConfig.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);//设置接收模式
+            enqueueDescriptor(clientConfig);//必须是设置这个才能监听模块数据
+        } else {
+            LogUtils.d("备用方法测试");
+            setNotification(gatt, service.getCharacteristic(descriptorUuid), true);
+        }
+    }
+
+    /**
+     * 在本地注册Service Changed特征，设备服务变化时删除GATT缓存；
+     * 该特征的描述符由系统协议栈管理，这里不写描述符
+     */
+    private void registerServiceChanged(BluetoothGatt gatt) {
+        BluetoothGattService service = gatt.getService(UUID_GENERIC_ATTRIBUTE);
+        BluetoothGattCharacteristic characteristic = service != null ? service.getCharacteristic(UUID_SERVICE_CHANGED) : null;
+        if (characteristic != null) {
+            gatt.setCharacteristicNotification(characteristic, true);
+        }
+    }
+
+    /**
+     * 设置读写特征的UUID，可以设置多个，扫描服务时使用第一个匹配的特征；下次扫描服务时生效
+     */
+    public void setCharacteristicUuids(UUID... uuids) {
+        characteristicUuids = new HashSet<>(Arrays.asList(uuids));
+    }
+
+    /**
+     * 设置通知描述符的UUID，默认为00002902（Client Characteristic Configuration）
+     */
+    public void setDescriptorUuid(UUID uuid) {
+        descriptorUuid = uuid;
+    }
+
+    /**
+     * 设置是否使用GATT服务缓存，默认使用；重连时直接按缓存定位特征并立即扫描服务
+     */
+    public void setGattCacheEnabled(boolean enabled) {
+        gattCacheEnabled = enabled;
+    }
+
+    /**
+     * 删除GATT服务缓存，address为null时删除所有设备的缓存
+     */
+    public void clearGattCache(String address) {
+        if (address == null) {
+            gattCache.clear();
+        } else {
+            gattCache.remove(address);
+        }
+    }
+
+    /**
+     * 订阅特征的通知，该特征的数据不再经过接收管道，直接回调handler
+     * 连接成功后订阅立即生效，否则在下次扫描到服务后生效；同一特征重复订阅时替换handler
+     */
+    public void subscribe(UUID serviceUuid, UUID characteristicUuid, BLENotifyHandler handler) {
+        Subscription subscription = new Subscription(serviceUuid, characteristicUuid, handler);
+        synchronized (this) {
+            Map<UUID, Subscription> map = new HashMap<>(subscriptions);
+            map.put(characteristicUuid, subscription);
+            subscriptions = map;
+        }
+        BluetoothGatt gatt = bluetoothGatt;
+        if (gatt != null && isConnected()) {
+            enableSubscription(gatt, subscription);
+            writeNextDescriptor(false);
+        }
+    }
+
+    /**
+     * 取消订阅特征的通知
+     */
+    public void unsubscribe(UUID characteristicUuid) {
+        Subscription subscription;
+        synchronized (this) {
+            Map<UUID, Subscription> map = new HashMap<>(subscriptions);
+            subscription = map.remove(characteristicUuid);
+            subscriptions = map;
+        }
+        BluetoothGatt gatt = bluetoothGatt;
+        if (subscription == null || gatt == null || !isConnected()) {
+            return;
+        }
+        BluetoothGattCharacteristic characteristic = findCharacteristic(gatt, subscription);
+        if (characteristic != null) {
+            gatt.setCharacteristicNotification(characteristic, false);
+            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(descriptorUuid);
+            if (descriptor != null) {
+                descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+                enqueueDescriptor(descriptor);
+                writeNextDescriptor(false);
+            }
+        }
+    }
+
+    /**
+     * 打开订阅特征的通知或指示
+     */
+    private void enableSubscription(BluetoothGatt gatt, Subscription subscription) {
+        BluetoothGattCharacteristic characteristic = findCharacteristic(gatt, subscription);
+        if (characteristic == null) {
+            LogUtils.w("未找到订阅的特征：" + subscription.characteristicUuid);
+            return;
+        }
+        if (!gatt.setCharacteristicNotification(characteristic, true)) {
+            LogUtils.w("订阅特征失败：" + subscription.characteristicUuid);
+            return;
+        }
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(descriptorUuid);
+        if (descriptor == null) {
+            return;
+        }
+        descriptor.setValue((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0
+                ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                : BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+        enqueueDescriptor(descriptor);
+    }
+
+    private BluetoothGattCharacteristic findCharacteristic(BluetoothGatt gatt, Subscription subscription) {
+        BluetoothGattService service = gatt.getService(subscription.serviceUuid);
+        return service != null ? service.getCharacteristic(subscription.characteristicUuid) : null;
+    }
+
+    /**
+     * 描述符加入写入队列
+     */
+    private void enqueueDescriptor(BluetoothGattDescriptor descriptor) {
+        synchronized (descriptorQueue) {
+            descriptorQueue.add(descriptor);
+        }
+    }
+
+    /**
+     * 没有描述符正在写入时写入下一个，写入期间暂停发送队列；
+     * 发送队列还有包在途或writeDescriptor返回false（GATT正忙）时延迟重试，重试次数用完才放弃该描述符
+     *
+     * @param completed 是否在onDescriptorWrite中调用
+     * @return 是否还有描述符正在写入或等待重试
+     */
+    private boolean writeNextDescriptor(boolean completed) {
+        BluetoothGatt gatt = bluetoothGatt;
+        synchronized (descriptorQueue) {
+            if (completed) {
+                descriptorWriting = false;
+            }
+            if (descriptorWriting) {
+                return true;
+            }
+            handler.removeCallbacks(descriptorRetryRunnable);
+            BluetoothGattDescriptor descriptor;
+            while (gatt != null && (descriptor = descriptorQueue.peek()) != null) {
+                if (writeQueue.pause() && gatt.writeDescriptor(descriptor)) {
+                    descriptorQueue.poll();
+                    descriptorRetry = 0;
+                    descriptorWriting = true;
+                    return true;
+                }
+                if (descriptorRetry < DESCRIPTOR_RETRY_COUNT) {
+                    descriptorRetry++;
+                    LogUtils.w("GATT正忙，" + DESCRIPTOR_RETRY_DELAY * descriptorRetry + "ms后重新写入描述符：" + descriptorRetry);
+                    handler.postDelayed(descriptorRetryRunnable, DESCRIPTOR_RETRY_DELAY * descriptorRetry);
+                    return true;
+                }
+                LogUtils.w("写入描述符失败：" + descriptor.getCharacteristic().getUuid());
+                descriptorQueue.poll();
+                descriptorRetry = 0;
+            }
+            writeQueue.resume();
+            return false;
+        }
+    }
+
+    /**
+     * 描述符全部写入完成，连接过程中的写入完成后才算真正建立连接
+     */
+    private void onDescriptorsWritten(BluetoothGatt gatt) {
+        if (bluetoothDeviceConnecting == null) {
+            // 连接后新增的订阅
+            return;
+        }
+        //来到这里，才算真正的建立连接
+        LogUtils.d("连接服务器成功，" + gatt.getDevice().getName() + ", " + gatt.getDevice().getAddress());
+        bluetoothDeviceConnected = bluetoothDeviceConnecting;
+        bluetoothDeviceConnecting = null;
+        reconnectSupervisor.onConnected();
+        notifyEvent(BLEEvent.CONNECT_SUCCESS, "连接服务器成功");
+    }
+
+    /**
+     * 订阅的特征
+     */
+    private static class Subscription {
+        final UUID serviceUuid;
+        final UUID characteristicUuid;
+        final BLENotifyHandler handler;
+
+        Subscription(UUID serviceUuid, UUID characteristicUuid, BLENotifyHandler handler) {
+            this.serviceUuid = serviceUuid;
+            this.characteristicUuid = characteristicUuid;
+            this.handler = handler;
+        }
+    }
+
     public void setNotification(BluetoothGatt bluetoothGatt, BluetoothGattCharacteristic characteristic, boolean enable) {
         if (bluetoothGatt == null || characteristic == null) {
             LogUtils.d("bluetoothGatt == null || characteristic == null");
@@ -497,50 +1359,11 @@ public class BLEClientLe {
                 } else {
                     LogUtils.d("没有走");
                 }
-                bluetoothGatt.writeDescriptor(bluetoothGattDescriptor);
+                enqueueDescriptor(bluetoothGattDescriptor);
                 LogUtils.d("监听的特征是: " + bluetoothGattDescriptor.getUuid().toString());
             }
+            writeNextDescriptor(false);
         }
     }
 
-    /**
-     * sleep
-     */
-    private void threadSleep(long millis) {
-        try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            LogUtils.e(e);
-        }
-    }
-
-    /**
-     * 将数据分包
-     */
-    private int[] dataSeparate(int len) {
-        int[] lens = new int[2];
-        lens[0] = len / 20;
-        lens[1] = len % 20;
-        return lens;
-    }
-
-    /**
-     * 将String字符串分包为List byte数组
-     */
-    private List<byte[]> getSendDataByte(byte[] buff) {
-        List<byte[]> listSendData = new ArrayList<>();
-        int[] sendDataLength = dataSeparate(buff.length);
-        for (int i = 0; i < sendDataLength[0]; i++) {
-            byte[] dataFor20 = new byte[20];
-            System.arraycopy(buff, i * 20, dataFor20, 0, 20);
-            listSendData.add(dataFor20);
-        }
-        if (sendDataLength[1] > 0) {
-            byte[] lastData = new byte[sendDataLength[1]];
-            System.arraycopy(buff, sendDataLength[0] * 20, lastData, 0, sendDataLength[1]);
-            listSendData.add(lastData);
-        }
-        return listSendData;
-    }
-
 }
@@ -0,0 +1,341 @@
+package com.rhino.ble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+
+import com.rhino.log.LogUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * 低功耗蓝牙客户端连接池，同时连接多个设备
+ * 按设备地址为每个设备创建独立的{@link BLEClientLe}，发送队列、接收管道和连接状态互不影响；
+ * 事件通过{@link BLEPoolCallback}回调，带上事件来自的设备；
+ * 连接失败、断开后不再重连或重连失败的设备不计入连接数，连接数已满时移出连接池，给新设备腾出位置
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public class BLEClientLePool {
+
+    /**
+     * 新建连接时配置客户端，如接收管道、压缩、MTU、自动重连
+     * 接收管道、压缩等有状态的对象每个连接需要单独创建
+     */
+    public interface Initializer {
+        void onCreateClient(BluetoothDevice device, BLEClientLe client);
+    }
+
+    /**
+     * 默认最大连接数，多数手机同时保持7个左右的低功耗连接
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 7;
+
+    private final Context context;
+    private final BluetoothAdapter bluetoothAdapter;
+    private final BLEPoolCallback callback;
+    /**
+     * 按设备地址索引的客户端
+     */
+    private final Map<String, BLEClientLe> clients = new HashMap<>();
+    /**
+     * 连接失败、断开后不再重连或重连失败的设备地址，不计入连接数
+     */
+    private final Set<String> idle = new HashSet<>();
+    /**
+     * 新建连接时配置客户端
+     */
+    private Initializer initializer;
+    /**
+     * 所有连接共用的接收回调Executor，null时每个连接使用自己的分发线程
+     */
+    private Executor receiveExecutor;
+    /**
+     * 最大连接数
+     */
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    public BLEClientLePool(Context context, BluetoothAdapter bluetoothAdapter, BLEPoolCallback callback) {
+        this.context = context;
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.callback = callback;
+    }
+
+    /**
+     * 设置新建连接时配置客户端，只对之后新建的连接生效
+     */
+    public synchronized void setInitializer(Initializer initializer) {
+        this.initializer = initializer;
+    }
+
+    /**
+     * 设置所有连接共用的接收回调Executor，每个连接的数据仍按顺序回调
+     */
+    public synchronized void setReceiveExecutor(Executor executor) {
+        this.receiveExecutor = executor;
+        for (BLEClientLe client : clients.values()) {
+            client.setReceiveExecutor(executor);
+        }
+    }
+
+    /**
+     * 设置最大连接数
+     */
+    public synchronized void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * 连接设备，不影响其它设备的连接
+     *
+     * @return 该设备的客户端，连接数已满时返回null并回调CONNECT_FAILED
+     */
+    public BLEClientLe connect(BluetoothDevice device) {
+        return connect(device, false);
+    }
+
+    /**
+     * 连接设备，不影响其它设备的连接
+     *
+     * @param autoConnect 见{@link BLEClientLe#connect(BluetoothDevice, boolean)}
+     * @return 该设备的客户端，连接数已满时返回null并回调CONNECT_FAILED
+     */
+    public BLEClientLe connect(BluetoothDevice device, boolean autoConnect) {
+        BLEClientLe client = obtain(device);
+        if (client == null) {
+            LogUtils.w("连接数已满：" + maxConnections + "，" + device.getAddress());
+            callback.onBLEEvent(device, BLEEvent.CONNECT_FAILED, "连接数已满");
+            return null;
+        }
+        client.connect(device, autoConnect);
+        return client;
+    }
+
+    /**
+     * 通过MAC直接连接已知设备，不需要先搜索
+     *
+     * @return MAC无效或连接数已满时返回null
+     */
+    public BLEClientLe connect(String mac, boolean autoConnect) {
+        if (bluetoothAdapter == null || !BluetoothAdapter.checkBluetoothAddress(mac)) {
+            LogUtils.w("无法直接连接：" + mac);
+            return null;
+        }
+        return connect(bluetoothAdapter.getRemoteDevice(mac), autoConnect);
+    }
+
+    /**
+     * 发送数据，该设备不在连接池中时返回false
+     */
+    public boolean write(String address, byte[] data) {
+        return write(address, data, 0, data.length);
+    }
+
+    /**
+     * 发送数据，该设备不在连接池中时返回false；未连接时自动连接
+     * 数据异步分包发送，收到WRITE_SUCCESS或WRITE_FAILED之前不要修改data
+     */
+    public boolean write(String address, byte[] data, int offset, int len) {
+        BLEClientLe client = get(address);
+        if (client == null) {
+            return false;
+        }
+        client.write(getDevice(client, address), data, offset, len);
+        return true;
+    }
+
+    /**
+     * 发送数据，返回该消息的发送结果，见{@link BLEClientLe#write(BluetoothDevice, byte[], int, int, int)}
+     */
+    public BLEWriteFuture write(String address, byte[] data, int offset, int len, int priority) {
+        BLEClientLe client = get(address);
+        if (client == null) {
+            return BLEWriteFuture.failed(len, priority, "设备不在连接池中");
+        }
+        return client.write(getDevice(client, address), data, offset, len, priority);
+    }
+
+    /**
+     * 获取设备的客户端，用于单独配置，不在连接池中时返回null
+     */
+    public synchronized BLEClientLe get(String address) {
+        return clients.get(address);
+    }
+
+    /**
+     * 断开设备的连接并移出连接池
+     */
+    public void disconnect(String address) {
+        BLEClientLe client;
+        synchronized (this) {
+            client = clients.remove(address);
+            idle.remove(address);
+        }
+        if (client != null) {
+            client.onDestroy();
+        }
+    }
+
+    /**
+     * 断开所有设备的连接，保留客户端及其配置
+     */
+    public void disconnectAll() {
+        for (BLEClientLe client : getClients()) {
+            client.disconnect();
+        }
+    }
+
+    /**
+     * 获取已连接的设备
+     */
+    public List<BluetoothDevice> getConnectedDevices() {
+        List<BluetoothDevice> devices = new ArrayList<>();
+        for (BLEClientLe client : getClients()) {
+            BluetoothDevice device = client.getBluetoothDeviceConnected();
+            if (device != null) {
+                devices.add(device);
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * 连接池中计入连接数的设备数量，包括正在连接和重连中的设备，不包括连接失败、断开后不再重连的设备
+     */
+    public synchronized int size() {
+        return clients.size() - idle.size();
+    }
+
+    /**
+     * 不再使用时调用
+     */
+    public void onDestroy() {
+        List<BLEClientLe> list;
+        synchronized (this) {
+            list = new ArrayList<>(clients.values());
+            clients.clear();
+            idle.clear();
+        }
+        for (BLEClientLe client : list) {
+            client.onDestroy();
+        }
+    }
+
+    /**
+     * 获取设备的客户端，没有时新建
+     */
+    private BLEClientLe obtain(BluetoothDevice device) {
+        BLEClientLe client;
+        Initializer initializer;
+        List<BLEClientLe> evicted = new ArrayList<>();
+        synchronized (this) {
+            client = clients.get(device.getAddress());
+            if (client != null) {
+                // 重新连接，避免在连接事件到达之前被移出
+                idle.remove(device.getAddress());
+                return client;
+            }
+            if (clients.size() >= maxConnections) {
+                // 移出已失败或断开的设备
+                for (String address : idle) {
+                    evicted.add(clients.remove(address));
+                }
+                idle.clear();
+            }
+            if (clients.size() < maxConnections) {
+                ClientCallback clientCallback = new ClientCallback(device);
+                client = new BLEClientLe(context, bluetoothAdapter, clientCallback);
+                clientCallback.client = client;
+                if (receiveExecutor != null) {
+                    client.setReceiveExecutor(receiveExecutor);
+                }
+                clients.put(device.getAddress(), client);
+            }
+            initializer = this.initializer;
+        }
+        for (BLEClientLe old : evicted) {
+            LogUtils.d("连接池移出未连接的设备");
+            old.onDestroy();
+        }
+        if (client == null) {
+            return null;
+        }
+        LogUtils.d("连接池新建连接：" + device.getAddress());
+        if (initializer != null) {
+            initializer.onCreateClient(device, client);
+        }
+        return client;
+    }
+
+    /**
+     * 根据客户端的连接事件更新是否计入连接数，已移出连接池的客户端不处理
+     */
+    private synchronized void onClientEvent(BLEClientLe client, String address, BLEEvent event) {
+        if (client == null || clients.get(address) != client) {
+            return;
+        }
+        switch (event) {
+            case CONNECT_FAILED:
+            case DISCONNECTED:
+            case RECONNECT_FAILED:
+                // 需要重连时随后会收到RECONNECTING
+                idle.add(address);
+                break;
+            case CONNECTING:
+            case RECONNECTING:
+            case CONNECT_SUCCESS:
+                idle.remove(address);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 获取客户端对应的设备，已断开时按地址重新获取
+     */
+    private BluetoothDevice getDevice(BLEClientLe client, String address) {
+        BluetoothDevice device = client.getBluetoothDeviceConnected();
+        if (device == null) {
+            device = client.getBluetoothDeviceConnecting();
+        }
+        if (device == null) {
+            device = bluetoothAdapter.getRemoteDevice(address);
+        }
+        return device;
+    }
+
+    private synchronized List<BLEClientLe> getClients() {
+        return new ArrayList<>(clients.values());
+    }
+
+    /**
+     * 单个客户端的事件回调，带上设备转给连接池回调
+     */
+    private class ClientCallback implements BLECallback {
+
+        private final BluetoothDevice device;
+        /**
+         * 创建客户端后设置
+         */
+        private volatile BLEClientLe client;
+
+        ClientCallback(BluetoothDevice device) {
+            this.device = device;
+        }
+
+        @Override
+        public void onBLEEvent(BLEEvent event, Object obj) {
+            onClientEvent(client, device.getAddress(), event);
+            callback.onBLEEvent(device, event, obj);
+        }
+    }
+
+}
@@ -0,0 +1,337 @@
+package com.rhino.ble;
+
+import com.rhino.log.LogUtils;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 消息压缩，每个连接一个，双方都需要设置
+ * 每条消息加一个信封：flag(1) | len(varint) | [rawLen(varint)，仅压缩时] | payload，
+ * flag高5位为信封标记{@link #ENVELOPE_MARK}，低3位表示该消息是否压缩、是否使用字典，
+ * 达不到阈值或压缩后没有变小的消息原样发送；接收端按信封重新拼出完整消息后再解压，Deflater/Inflater在连接内复用
+ * <p>
+ * 信封标记0xF8-0xFA不会出现在UTF-8文本的开头，每次在消息边界上单独判断：没有信封标记或flag无效（0xFB-0xFF）
+ * 的数据认为是对端未压缩的原始数据，原样回调；发送时跟随对端最近一次的格式，
+ * 对端最近发来的是原始数据时不加信封，收到带信封的消息后恢复压缩，双方的解码都同时接受两种格式
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public class BLECompressor {
+
+    /**
+     * 原样发送
+     */
+    public static final int FLAG_RAW = 0;
+    /**
+     * deflate压缩
+     */
+    public static final int FLAG_DEFLATE = 1;
+    /**
+     * 使用预置字典的deflate压缩
+     */
+    public static final int FLAG_DEFLATE_DICTIONARY = 2;
+    /**
+     * 信封标记，flag字节的高5位
+     */
+    public static final int ENVELOPE_MARK = 0xF8;
+
+    /**
+     * varint不完整，等待更多数据
+     */
+    private static final long VARINT_INCOMPLETE = -1;
+    /**
+     * varint超过5字节或超出int范围
+     */
+    private static final long VARINT_INVALID = -2;
+
+    /**
+     * 解压出的完整消息
+     */
+    public interface Callback {
+        /**
+         * data只在回调内有效
+         */
+        void onMessage(byte[] data, int offset, int len);
+    }
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater(true);
+    /**
+     * 达到该长度才压缩
+     */
+    private int threshold = 64;
+    /**
+     * 预置字典，双方必须一致
+     */
+    private byte[] dictionary;
+    /**
+     * 单条消息的最大长度
+     */
+    private int maxMessageSize = 1024 * 1024;
+
+    private byte[] deflateBuffer = new byte[256];
+    private byte[] inflateBuffer = new byte[256];
+    private byte[] receiveBuffer = new byte[256];
+    private int receiveSize;
+    /**
+     * 上次getVarint读到的结束位置
+     */
+    private int varintEnd;
+    /**
+     * 对端最近一次发来的是否是原始数据，每次在消息边界上更新
+     */
+    private boolean peerRaw;
+    /**
+     * 是否已释放
+     */
+    private boolean released;
+
+    public BLECompressor() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level 压缩级别，{@link Deflater#BEST_SPEED}到{@link Deflater#BEST_COMPRESSION}
+     */
+    public BLECompressor(int level) {
+        this.deflater = new Deflater(level, true);
+    }
+
+    /**
+     * 设置达到多少字节才压缩
+     */
+    public synchronized void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * 设置预置字典（如常用的JSON键名），双方必须一致，可显著提升短消息的压缩率
+     */
+    public synchronized void setDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * 设置单条消息的最大长度
+     */
+    public synchronized void setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * 对端最近一次发来的是否是原始数据，此时消息原样发送
+     */
+    public synchronized boolean isPeerRaw() {
+        return peerRaw;
+    }
+
+    /**
+     * 编码一条消息，返回新分配的数组
+     */
+    public synchronized byte[] encode(byte[] data, int offset, int len) {
+        if (peerRaw) {
+            return Arrays.copyOfRange(data, offset, offset + len);
+        }
+        if (len >= threshold && !released) {
+            int compressedLen = deflate(data, offset, len);
+            if (compressedLen > 0 && compressedLen + varintSize(len) < len) {
+                int flag = dictionary != null ? FLAG_DEFLATE_DICTIONARY : FLAG_DEFLATE;
+                byte[] out = new byte[1 + varintSize(compressedLen) + varintSize(len) + compressedLen];
+                out[0] = (byte) (ENVELOPE_MARK | flag);
+                int pos = putVarint(out, 1, compressedLen);
+                pos = putVarint(out, pos, len);
+                System.arraycopy(deflateBuffer, 0, out, pos, compressedLen);
+                return out;
+            }
+        }
+        byte[] out = new byte[1 + varintSize(len) + len];
+        out[0] = (byte) (ENVELOPE_MARK | FLAG_RAW);
+        int pos = putVarint(out, 1, len);
+        System.arraycopy(data, offset, out, pos, len);
+        return out;
+    }
+
+    /**
+     * 输入收到的数据，可以任意拆分，每拼出一条完整消息回调一次
+     */
+    public synchronized void decode(byte[] data, int offset, int len, Callback callback) {
+        if (receiveBuffer.length - receiveSize < len) {
+            receiveBuffer = Arrays.copyOf(receiveBuffer, Math.max(receiveBuffer.length * 2, receiveSize + len));
+        }
+        System.arraycopy(data, offset, receiveBuffer, receiveSize, len);
+        receiveSize += len;
+        int pos = 0;
+        while (pos < receiveSize) {
+            int flag = receiveBuffer[pos] & 0xFF;
+            if ((flag & ENVELOPE_MARK) != ENVELOPE_MARK || (flag & ~ENVELOPE_MARK) > FLAG_DEFLATE_DICTIONARY) {
+                // 没有信封，本次收到的剩余数据原样回调
+                if (!peerRaw) {
+                    LogUtils.w("对端发来未压缩的数据，原样接收和发送：" + flag);
+                    peerRaw = true;
+                }
+                callback.onMessage(receiveBuffer, pos, receiveSize - pos);
+                receiveSize = 0;
+                return;
+            }
+            if (peerRaw) {
+                LogUtils.d("对端发来压缩信封，恢复压缩");
+                peerRaw = false;
+            }
+            flag &= ~ENVELOPE_MARK;
+            long lenField = getVarint(receiveBuffer, pos + 1, receiveSize);
+            if (lenField == VARINT_INCOMPLETE) {
+                break;
+            }
+            int headerEnd = varintEnd;
+            long rawField = lenField;
+            if (flag != FLAG_RAW && lenField != VARINT_INVALID) {
+                rawField = getVarint(receiveBuffer, headerEnd, receiveSize);
+                if (rawField == VARINT_INCOMPLETE) {
+                    break;
+                }
+                headerEnd = varintEnd;
+            }
+            if (lenField == VARINT_INVALID || rawField == VARINT_INVALID
+                    || lenField > maxMessageSize || rawField > maxMessageSize) {
+                LogUtils.e("消息长度错误：" + lenField + "/" + rawField);
+                receiveSize = 0;
+                return;
+            }
+            int payloadLen = (int) lenField;
+            int rawLen = (int) rawField;
+            if (receiveSize - headerEnd < payloadLen) {
+                break;
+            }
+            int payloadOffset = headerEnd;
+            pos = payloadOffset + payloadLen;
+            if (flag == FLAG_RAW) {
+                callback.onMessage(receiveBuffer, payloadOffset, payloadLen);
+            } else if (inflate(receiveBuffer, payloadOffset, payloadLen, rawLen, flag == FLAG_DEFLATE_DICTIONARY)) {
+                callback.onMessage(inflateBuffer, 0, rawLen);
+            }
+        }
+        System.arraycopy(receiveBuffer, pos, receiveBuffer, 0, receiveSize - pos);
+        receiveSize -= pos;
+    }
+
+    /**
+     * 断开连接后丢弃未拼完的数据，恢复默认的压缩发送
+     */
+    public synchronized void reset() {
+        receiveSize = 0;
+        peerRaw = false;
+    }
+
+    /**
+     * 不再使用时调用，之后编码的消息不再压缩，收到的压缩消息丢弃
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        deflater.end();
+        inflater.end();
+    }
+
+    private int deflate(byte[] data, int offset, int len) {
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data, offset, len);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == deflateBuffer.length) {
+                if (size >= len) {
+                    // 压缩后不会更小
+                    return -1;
+                }
+                deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+            }
+            size += deflater.deflate(deflateBuffer, size, deflateBuffer.length - size);
+        }
+        return size;
+    }
+
+    private boolean inflate(byte[] data, int offset, int len, int rawLen, boolean useDictionary) {
+        if (released) {
+            LogUtils.e("压缩器已释放，丢弃压缩消息");
+            return false;
+        }
+        if (useDictionary && dictionary == null) {
+            LogUtils.e("对端使用了字典压缩，本端未设置字典");
+            return false;
+        }
+        if (inflateBuffer.length < rawLen) {
+            inflateBuffer = new byte[Math.max(inflateBuffer.length * 2, rawLen)];
+        }
+        inflater.reset();
+        if (useDictionary) {
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(data, offset, len);
+        try {
+            int size = 0;
+            while (size < rawLen && !inflater.finished()) {
+                int n = inflater.inflate(inflateBuffer, size, rawLen - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+            if (size != rawLen) {
+                LogUtils.e("解压长度错误：" + size + "/" + rawLen);
+                return false;
+            }
+            return true;
+        } catch (DataFormatException e) {
+            LogUtils.e("解压失败", e);
+            return false;
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static int putVarint(byte[] out, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * 读取varint，结束位置保存在{@link #varintEnd}
+     *
+     * @return 数据不完整返回{@link #VARINT_INCOMPLETE}，超过5字节或超出int范围返回{@link #VARINT_INVALID}
+     */
+    private long getVarint(byte[] data, int pos, int end) {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos >= end) {
+                return VARINT_INCOMPLETE;
+            }
+            int b = data[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                varintEnd = pos;
+                return value > Integer.MAX_VALUE ? VARINT_INVALID : value;
+            }
+        }
+        return VARINT_INVALID;
+    }
+
+}
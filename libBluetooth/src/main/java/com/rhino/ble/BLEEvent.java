@@ -47,11 +47,31 @@ public enum BLEEvent {
      * 断开连接
      */
     DISCONNECTED,
+    /**
+     * 连接意外断开，正在自动重连
+     */
+    RECONNECTING,
+    /**
+     * 自动重连次数用完，放弃重连
+     */
+    RECONNECT_FAILED,
 
     /**
      * 读取成功
      */
     READ_SUCCESS,
+    /**
+     * 读取成功，原始数据byte[]（开启receiveBytes后代替READ_SUCCESS）
+     */
+    READ_DATA,
+    /**
+     * 读取成功，接收管道解码后的对象（设置了解码器后代替READ_SUCCESS、READ_DATA）
+     */
+    READ_OBJECT,
+    /**
+     * 读取成功，批量回调的一批数据BLEReceiveBatch（开启批量回调后代替READ_SUCCESS、READ_DATA）
+     */
+    READ_BATCH,
     /**
      * 读取失败
      */
@@ -65,6 +85,14 @@ public enum BLEEvent {
      * 发送失败
      */
     WRITE_FAILED,
+    /**
+     * 发送队列已降到低水位，可以继续发送
+     */
+    WRITABLE,
+    /**
+     * 发送队列已达到高水位，请暂停发送
+     */
+    NOT_WRITABLE,
 
 
     /**
@@ -0,0 +1,188 @@
+package com.rhino.ble;
+
+import com.rhino.log.LogUtils;
+
+import java.util.Arrays;
+
+/**
+ * 接收分帧，把分包到达的数据重新拼成完整的帧，每个连接一个
+ * 数据累积在可复用的缓存中，只回调完整的帧；缓存为空时直接在收到的数据上分帧，不复制
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public abstract class BLEFramer {
+
+    /**
+     * 完整的帧
+     */
+    public interface Callback {
+        /**
+         * data只在回调内有效
+         */
+        void onFrame(byte[] data, int offset, int len);
+    }
+
+    /**
+     * 单帧最大长度，超过时丢弃已缓存的数据
+     */
+    private int maxFrameSize = 64 * 1024;
+    private byte[] buffer = new byte[256];
+    private int size;
+
+    /**
+     * 设置单帧最大长度
+     */
+    public synchronized void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * 输入收到的数据，每拼出一帧回调一次
+     */
+    public synchronized void feed(byte[] data, int offset, int len, Callback callback) {
+        if (size == 0) {
+            int consumed = decodeAll(data, offset, offset + len, callback);
+            offset += consumed;
+            len -= consumed;
+            if (len == 0) {
+                return;
+            }
+        }
+        if (size + len > maxFrameSize) {
+            LogUtils.e("帧超过最大长度，丢弃：" + (size + len) + "字节");
+            size = 0;
+            return;
+        }
+        if (buffer.length < size + len) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + len));
+        }
+        System.arraycopy(data, offset, buffer, size, len);
+        size += len;
+        int consumed = decodeAll(buffer, 0, size, callback);
+        if (consumed > 0) {
+            System.arraycopy(buffer, consumed, buffer, 0, size - consumed);
+            size -= consumed;
+        }
+    }
+
+    /**
+     * 断开连接后丢弃未拼完的数据
+     */
+    public synchronized void reset() {
+        size = 0;
+    }
+
+    private int decodeAll(byte[] data, int start, int end, Callback callback) {
+        int pos = start;
+        int consumed;
+        while (pos < end && (consumed = decode(data, pos, end, callback)) > 0) {
+            pos += consumed;
+        }
+        return pos - start;
+    }
+
+    /**
+     * 从start开始解析一帧，完整时回调callback
+     *
+     * @return 消耗的字节数，数据不足一帧返回0
+     */
+    protected abstract int decode(byte[] data, int start, int end, Callback callback);
+
+    /**
+     * 长度前缀分帧：length | payload，length为payload的长度
+     */
+    public static class LengthPrefix extends BLEFramer {
+
+        private final int lengthBytes;
+        private final boolean bigEndian;
+
+        /**
+         * @param lengthBytes 长度字段的字节数，1、2或4
+         * @param bigEndian   长度字段是否大端
+         */
+        public LengthPrefix(int lengthBytes, boolean bigEndian) {
+            if (lengthBytes != 1 && lengthBytes != 2 && lengthBytes != 4) {
+                throw new IllegalArgumentException("lengthBytes must be 1, 2 or 4");
+            }
+            this.lengthBytes = lengthBytes;
+            this.bigEndian = bigEndian;
+        }
+
+        @Override
+        protected int decode(byte[] data, int start, int end, Callback callback) {
+            if (end - start < lengthBytes) {
+                return 0;
+            }
+            long len = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                int b = data[start + (bigEndian ? i : lengthBytes - 1 - i)] & 0xFF;
+                len = (len << 8) | b;
+            }
+            if (len > Integer.MAX_VALUE - lengthBytes || end - start - lengthBytes < len) {
+                return 0;
+            }
+            callback.onFrame(data, start + lengthBytes, (int) len);
+            return lengthBytes + (int) len;
+        }
+    }
+
+    /**
+     * 分隔符分帧：payload | delimiter，回调的帧不含分隔符
+     */
+    public static class Delimiter extends BLEFramer {
+
+        private final byte[] delimiter;
+
+        public Delimiter(byte[] delimiter) {
+            if (delimiter == null || delimiter.length == 0) {
+                throw new IllegalArgumentException("delimiter is empty");
+            }
+            this.delimiter = delimiter.clone();
+        }
+
+        @Override
+        protected int decode(byte[] data, int start, int end, Callback callback) {
+            byte first = delimiter[0];
+            for (int i = start; i <= end - delimiter.length; i++) {
+                if (data[i] != first) {
+                    continue;
+                }
+                int j = 1;
+                while (j < delimiter.length && data[i + j] == delimiter[j]) {
+                    j++;
+                }
+                if (j == delimiter.length) {
+                    callback.onFrame(data, start, i - start);
+                    return i - start + delimiter.length;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * 定长分帧
+     */
+    public static class FixedSize extends BLEFramer {
+
+        private final int frameSize;
+
+        public FixedSize(int frameSize) {
+            if (frameSize <= 0) {
+                throw new IllegalArgumentException("frameSize must be positive");
+            }
+            this.frameSize = frameSize;
+        }
+
+        @Override
+        protected int decode(byte[] data, int start, int end, Callback callback) {
+            if (end - start < frameSize) {
+                return 0;
+            }
+            callback.onFrame(data, start, frameSize);
+            return frameSize;
+        }
+    }
+
+}
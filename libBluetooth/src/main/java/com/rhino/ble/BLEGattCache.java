@@ -0,0 +1,170 @@
+package com.rhino.ble;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.rhino.log.LogUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * GATT服务缓存，按设备MAC保存解析到的服务、特征（含句柄）和描述符，持久化到SharedPreferences
+ * 重连时直接按缓存定位特征，不再遍历所有服务；句柄不一致或收到Service Changed时删除缓存
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLEGattCache {
+
+    /**
+     * SharedPreferences文件名
+     */
+    private static final String PREFERENCES_NAME = "ble_gatt_cache";
+
+    /**
+     * 缓存的服务布局
+     */
+    static class Layout {
+        /**
+         * 服务UUID
+         */
+        final UUID serviceUuid;
+        /**
+         * 服务句柄
+         */
+        final int serviceHandle;
+        /**
+         * 读写特征UUID
+         */
+        final UUID characteristicUuid;
+        /**
+         * 读写特征句柄
+         */
+        final int characteristicHandle;
+        /**
+         * 读写特征属性
+         */
+        final int properties;
+        /**
+         * 通知描述符UUID
+         */
+        final UUID descriptorUuid;
+        /**
+         * 是否有通知描述符
+         */
+        final boolean hasDescriptor;
+
+        Layout(UUID serviceUuid, int serviceHandle, UUID characteristicUuid, int characteristicHandle,
+               int properties, UUID descriptorUuid, boolean hasDescriptor) {
+            this.serviceUuid = serviceUuid;
+            this.serviceHandle = serviceHandle;
+            this.characteristicUuid = characteristicUuid;
+            this.characteristicHandle = characteristicHandle;
+            this.properties = properties;
+            this.descriptorUuid = descriptorUuid;
+            this.hasDescriptor = hasDescriptor;
+        }
+
+        private String encode() {
+            return serviceUuid + "," + serviceHandle + "," + characteristicUuid + ","
+                    + characteristicHandle + "," + properties + "," + descriptorUuid + "," + (hasDescriptor ? 1 : 0);
+        }
+
+        private static Layout decode(String value) {
+            String[] items = value.split(",");
+            if (items.length != 7) {
+                return null;
+            }
+            return new Layout(UUID.fromString(items[0]), Integer.parseInt(items[1]),
+                    UUID.fromString(items[2]), Integer.parseInt(items[3]),
+                    Integer.parseInt(items[4]), UUID.fromString(items[5]), "1".equals(items[6]));
+        }
+    }
+
+    private final SharedPreferences preferences;
+    /**
+     * 内存缓存，避免每次重连都解析字符串
+     */
+    private final Map<String, Layout> layouts = new HashMap<>();
+
+    BLEGattCache(Context context) {
+        SharedPreferences preferences = null;
+        try {
+            preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        } catch (Exception e) {
+            LogUtils.e("GATT缓存不可用，只保存在内存中", e);
+        }
+        this.preferences = preferences;
+    }
+
+    /**
+     * 读取缓存，没有时返回null
+     */
+    public synchronized Layout get(String address) {
+        if (address == null) {
+            return null;
+        }
+        Layout layout = layouts.get(address);
+        if (layout != null || preferences == null) {
+            return layout;
+        }
+        String value = preferences.getString(address, null);
+        if (value == null) {
+            return null;
+        }
+        try {
+            layout = Layout.decode(value);
+        } catch (Exception e) {
+            LogUtils.e("GATT缓存解析失败：" + value, e);
+            layout = null;
+        }
+        if (layout == null) {
+            preferences.edit().remove(address).apply();
+            return null;
+        }
+        layouts.put(address, layout);
+        return layout;
+    }
+
+    /**
+     * 保存缓存，内容相同时不重复写入
+     */
+    public synchronized void put(String address, Layout layout) {
+        if (address == null) {
+            return;
+        }
+        Layout old = layouts.put(address, layout);
+        if (old != null && old.encode().equals(layout.encode())) {
+            return;
+        }
+        if (preferences != null) {
+            preferences.edit().putString(address, layout.encode()).apply();
+        }
+    }
+
+    /**
+     * 删除缓存
+     */
+    public synchronized void remove(String address) {
+        if (address == null) {
+            return;
+        }
+        layouts.remove(address);
+        if (preferences != null) {
+            preferences.edit().remove(address).apply();
+        }
+    }
+
+    /**
+     * 删除所有缓存
+     */
+    public synchronized void clear() {
+        layouts.clear();
+        if (preferences != null) {
+            preferences.edit().clear().apply();
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.rhino.ble;
+
+import java.util.UUID;
+
+/**
+ * 订阅特征的通知回调
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public interface BLENotifyHandler {
+
+    /**
+     * 收到订阅特征的通知，在接收分发线程中调用
+     *
+     * @param serviceUuid        服务UUID
+     * @param characteristicUuid 特征UUID
+     * @param data               通知的数据，新分配的数组，可以直接持有
+     * @param timeNanos          到达时间，{@link android.os.SystemClock#elapsedRealtimeNanos()}
+     */
+    void onNotify(UUID serviceUuid, UUID characteristicUuid, byte[] data, long timeNanos);
+
+}
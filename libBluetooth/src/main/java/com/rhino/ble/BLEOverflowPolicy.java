@@ -0,0 +1,28 @@
+package com.rhino.ble;
+
+/**
+ * 发送队列满时的处理策略
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public enum BLEOverflowPolicy {
+
+    /**
+     * 阻塞调用线程直到队列有空间，不要在主线程或蓝牙回调线程中发送
+     */
+    BLOCK,
+    /**
+     * 丢弃队列中最早的还未开始发送的消息，不回调WRITE_FAILED
+     */
+    DROP_OLDEST,
+    /**
+     * 丢弃本条消息，不回调WRITE_FAILED
+     */
+    DROP_NEWEST,
+    /**
+     * 本条消息发送失败，回调WRITE_FAILED
+     */
+    FAIL;
+
+}
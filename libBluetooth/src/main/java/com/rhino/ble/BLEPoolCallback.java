@@ -0,0 +1,20 @@
+package com.rhino.ble;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * 连接池的事件回调，带上事件来自的设备
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public interface BLEPoolCallback {
+
+    /**
+     * @param device 事件来自的设备
+     * @param event  同{@link BLECallback#onBLEEvent(BLEEvent, Object)}
+     * @param obj    同{@link BLECallback#onBLEEvent(BLEEvent, Object)}
+     */
+    void onBLEEvent(BluetoothDevice device, BLEEvent event, Object obj);
+
+}
@@ -0,0 +1,73 @@
+package com.rhino.ble;
+
+import java.util.Arrays;
+
+/**
+ * 批量回调的一批数据（READ_BATCH）
+ * 所有数据包依次存放在一个数组中，偏移和到达时间分别存放在int[]和long[]中
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public class BLEReceiveBatch {
+
+    private final byte[] data;
+    private final int[] offsets;
+    private final long[] timestampsNanos;
+    private final int count;
+
+    BLEReceiveBatch(byte[] data, int[] offsets, long[] timestampsNanos, int count) {
+        this.data = data;
+        this.offsets = offsets;
+        this.timestampsNanos = timestampsNanos;
+        this.count = count;
+    }
+
+    /**
+     * 数据包个数
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * 所有数据包依次拼接的数据，第i包为[getOffset(i), getOffset(i) + getLength(i))
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * 第i包的起始位置
+     */
+    public int getOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * 第i包的长度
+     */
+    public int getLength(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * 第i包的到达时间，{@link android.os.SystemClock#elapsedRealtimeNanos()}
+     */
+    public long getTimestampNanos(int i) {
+        return timestampsNanos[i];
+    }
+
+    /**
+     * 复制出第i包
+     */
+    public byte[] getPacket(int i) {
+        return Arrays.copyOfRange(data, offsets[i], offsets[i + 1]);
+    }
+
+    @Override
+    public String toString() {
+        return "BLEReceiveBatch{count=" + count + ", bytes=" + offsets[count] + '}';
+    }
+
+}
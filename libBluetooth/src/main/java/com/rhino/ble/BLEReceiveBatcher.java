@@ -0,0 +1,193 @@
+package com.rhino.ble;
+
+import com.rhino.log.LogUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接收批量回调，把一段时间内收到的数据包合并成一批回调一次
+ * 达到maxCount包立即回调，否则从第一包到达起最多等待maxDelay毫秒
+ * <p>
+ * add和flush都在接收分发线程中调用，定时刷新也投递到该线程执行，
+ * 所有批次都在接收回调Executor中按顺序回调
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLEReceiveBatcher {
+
+    /**
+     * 一批数据的输出
+     */
+    public interface Sink {
+        void onBatch(BLEReceiveBatch batch);
+    }
+
+    /**
+     * 一批数据的输出
+     */
+    private final Sink sink;
+    /**
+     * 定时刷新投递到的Executor，即接收分发线程
+     */
+    private final Executor flushExecutor;
+    /**
+     * 延迟回调定时器，共用的守护线程
+     */
+    private final ScheduledExecutorService scheduler = BLEScheduler.get();
+    /**
+     * 最大等待时间，毫秒，小于等于0时只按包数回调
+     */
+    private final long maxDelay;
+    /**
+     * 达到该包数立即回调，小于等于0时只按时间回调
+     */
+    private final int maxCount;
+    /**
+     * 缓存的数据，复用
+     */
+    private byte[] buffer = new byte[1024];
+    private int[] offsets = new int[17];
+    private long[] timestampsNanos = new long[16];
+    private int count;
+    /**
+     * 延迟回调任务
+     */
+    private ScheduledFuture<?> flushFuture;
+    /**
+     * 当前批次的编号，每取出一批加1，定时刷新只刷新安排它的那一批
+     */
+    private int batchId;
+
+    public BLEReceiveBatcher(Sink sink, Executor flushExecutor, long maxDelay, int maxCount) {
+        this.sink = sink;
+        this.flushExecutor = flushExecutor;
+        this.maxDelay = maxDelay;
+        this.maxCount = maxCount;
+    }
+
+    /**
+     * 加入一包
+     *
+     * @param timeNanos 到达时间
+     */
+    public void add(byte[] data, int offset, int len, long timeNanos) {
+        BLEReceiveBatch batch = null;
+        synchronized (this) {
+            if (count == timestampsNanos.length) {
+                timestampsNanos = Arrays.copyOf(timestampsNanos, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2 + 1);
+            }
+            int size = offsets[count];
+            if (buffer.length < size + len) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + len));
+            }
+            System.arraycopy(data, offset, buffer, size, len);
+            timestampsNanos[count] = timeNanos;
+            offsets[++count] = size + len;
+            if (maxCount > 0 && count >= maxCount) {
+                batch = takeBatch();
+            } else if (flushFuture == null && maxDelay > 0) {
+                try {
+                    flushFuture = scheduler.schedule(newFlushTimer(batchId), maxDelay, TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    LogUtils.e("批量回调定时失败", e);
+                    batch = takeBatch();
+                }
+            }
+        }
+        if (batch != null) {
+            sink.onBatch(batch);
+        }
+    }
+
+    /**
+     * 立即回调缓存中的数据，在接收分发线程中调用
+     */
+    public void flush() {
+        BLEReceiveBatch batch;
+        synchronized (this) {
+            batch = takeBatch();
+        }
+        if (batch != null) {
+            sink.onBatch(batch);
+        }
+    }
+
+    /**
+     * 丢弃缓存中的数据
+     */
+    public synchronized void clear() {
+        cancelFlushFuture();
+        count = 0;
+    }
+
+    /**
+     * 不再使用时调用
+     */
+    public synchronized void release() {
+        clear();
+    }
+
+    /**
+     * 定时到达后把刷新投递到接收分发线程，和之前收到的数据保持顺序
+     */
+    private Runnable newFlushTimer(final int id) {
+        final Runnable flushTask = new Runnable() {
+            @Override
+            public void run() {
+                BLEReceiveBatch batch;
+                synchronized (BLEReceiveBatcher.this) {
+                    if (id != batchId) {
+                        // 这一批已按包数回调
+                        return;
+                    }
+                    batch = takeBatch();
+                }
+                if (batch != null) {
+                    sink.onBatch(batch);
+                }
+            }
+        };
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized (BLEReceiveBatcher.this) {
+                    if (id != batchId) {
+                        return;
+                    }
+                    // 投递的任务被丢弃时，下一包重新定时
+                    flushFuture = null;
+                }
+                flushExecutor.execute(flushTask);
+            }
+        };
+    }
+
+    /**
+     * 取出缓存中的数据，复制成新数组交给接收方
+     */
+    private BLEReceiveBatch takeBatch() {
+        cancelFlushFuture();
+        if (count == 0) {
+            return null;
+        }
+        batchId++;
+        BLEReceiveBatch batch = new BLEReceiveBatch(Arrays.copyOf(buffer, offsets[count]),
+                Arrays.copyOf(offsets, count + 1), Arrays.copyOf(timestampsNanos, count), count);
+        count = 0;
+        return batch;
+    }
+
+    private void cancelFlushFuture() {
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.rhino.ble;
+
+import android.os.SystemClock;
+
+import com.rhino.log.LogUtils;
+
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 接收分发，GATT回调线程只复制数据放入无锁队列后立即返回，由分发线程依次处理
+ * 可以指定任意Executor，同一时刻只有一个任务在处理队列，保证按到达顺序回调；
+ * 批量回调的定时刷新等需要和收到的数据保持顺序的任务通过{@link #execute(Runnable)}放入同一个队列
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLEReceiveDispatcher implements Executor {
+
+    /**
+     * 处理收到的数据
+     */
+    interface Handler {
+        /**
+         * 在分发线程中调用
+         *
+         * @param uuid      特征UUID
+         * @param timeNanos 到达时间，{@link SystemClock#elapsedRealtimeNanos()}
+         */
+        void onReceive(UUID uuid, byte[] data, long timeNanos);
+    }
+
+    /**
+     * 一个通知，或一个任务
+     */
+    private static class Packet {
+        final UUID uuid;
+        final byte[] data;
+        final long timeNanos;
+        final Runnable task;
+
+        Packet(UUID uuid, byte[] data, long timeNanos, Runnable task) {
+            this.uuid = uuid;
+            this.data = data;
+            this.timeNanos = timeNanos;
+            this.task = task;
+        }
+    }
+
+    private final Handler handler;
+    private final ConcurrentLinkedQueue<Packet> queue = new ConcurrentLinkedQueue<>();
+    /**
+     * 是否已有任务在处理队列
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /**
+     * 外部指定的分发Executor，null时使用默认的分发线程
+     */
+    private volatile Executor executor;
+    /**
+     * 默认的分发线程
+     */
+    private ExecutorService defaultExecutor;
+    /**
+     * 是否已释放，释放后收到的数据和任务直接丢弃
+     */
+    private volatile boolean released;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            do {
+                Packet packet;
+                while ((packet = queue.poll()) != null) {
+                    try {
+                        if (packet.task != null) {
+                            packet.task.run();
+                        } else {
+                            handler.onReceive(packet.uuid, packet.data, packet.timeNanos);
+                        }
+                    } catch (Exception e) {
+                        LogUtils.e("处理收到的数据失败", e);
+                    }
+                }
+                scheduled.set(false);
+                // 置位前可能又有数据入队
+            } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+    };
+
+    BLEReceiveDispatcher(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 设置分发Executor，null时使用默认的分发线程
+     */
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 在GATT回调线程中调用，data之后不能再修改
+     */
+    void dispatch(UUID uuid, byte[] data) {
+        enqueue(new Packet(uuid, data, SystemClock.elapsedRealtimeNanos(), null));
+    }
+
+    /**
+     * 在分发线程中执行任务，和收到的数据按入队顺序依次处理
+     */
+    @Override
+    public void execute(Runnable task) {
+        enqueue(new Packet(null, null, 0, task));
+    }
+
+    /**
+     * 丢弃还未处理的数据，已入队的任务仍会执行
+     */
+    void clear() {
+        Iterator<Packet> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().task == null) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void enqueue(Packet packet) {
+        if (released) {
+            LogUtils.d("接收分发已释放，丢弃");
+            return;
+        }
+        queue.offer(packet);
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                Executor executor = getExecutor();
+                if (executor == null) {
+                    // 入队时正在释放
+                    queue.clear();
+                    scheduled.set(false);
+                    return;
+                }
+                executor.execute(drainTask);
+            } catch (Exception e) {
+                scheduled.set(false);
+                LogUtils.e("分发收到的数据失败", e);
+            }
+        }
+    }
+
+    /**
+     * 不再使用时调用，之后收到的数据和任务直接丢弃，不会重新创建分发线程
+     */
+    synchronized void release() {
+        released = true;
+        queue.clear();
+        if (defaultExecutor != null) {
+            defaultExecutor.shutdown();
+            defaultExecutor = null;
+        }
+    }
+
+    /**
+     * @return 已释放时返回null
+     */
+    private Executor getExecutor() {
+        Executor executor = this.executor;
+        if (executor != null) {
+            return released ? null : executor;
+        }
+        synchronized (this) {
+            if (released) {
+                return null;
+            }
+            if (defaultExecutor == null) {
+                defaultExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "BLEReceive");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return defaultExecutor;
+        }
+    }
+
+}
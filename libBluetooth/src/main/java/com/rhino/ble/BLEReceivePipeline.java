@@ -0,0 +1,273 @@
+package com.rhino.ble;
+
+import com.rhino.log.LogUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 接收管道，每个连接一个，收到的数据依次经过各个处理阶段，如分帧、校验、解码
+ * 各阶段在上一阶段的缓存上直接处理（传递data、offset、len），不产生中间数组和String；
+ * 设置了解码器时只回调解码后的对象（READ_OBJECT），否则回调最后一个阶段输出的数据
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public class BLEReceivePipeline {
+
+    /**
+     * 处理阶段
+     */
+    public interface Stage {
+        /**
+         * 处理一段数据，每产生一段输出调用一次output，data只在调用期间有效
+         */
+        void process(byte[] data, int offset, int len, Output output) throws Exception;
+
+        /**
+         * 断开连接后丢弃未处理完的数据
+         */
+        void reset();
+    }
+
+    /**
+     * 阶段输出
+     */
+    public interface Output {
+        void onData(byte[] data, int offset, int len);
+    }
+
+    /**
+     * 对象解码器
+     */
+    public interface Decoder {
+        /**
+         * 把一帧数据解码成对象，返回null时丢弃，data只在调用期间有效
+         */
+        Object decode(byte[] data, int offset, int len) throws Exception;
+    }
+
+    /**
+     * 管道输出，由各个客户端实现
+     */
+    interface Receiver {
+        /**
+         * 未设置解码器时，最后一个阶段输出的数据
+         */
+        void onData(byte[] data, int offset, int len);
+
+        /**
+         * 解码后的对象
+         */
+        void onObject(Object obj);
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private Output[] outputs = new Output[0];
+    private Decoder decoder;
+    private Receiver receiver;
+    /**
+     * 处理出错被丢弃的数据段数
+     */
+    private int errorCount;
+
+    /**
+     * 添加处理阶段
+     */
+    public synchronized BLEReceivePipeline addStage(Stage stage) {
+        stages.add(stage);
+        outputs = new Output[stages.size()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new StageOutput(i + 1);
+        }
+        return this;
+    }
+
+    /**
+     * 添加分帧阶段
+     */
+    public BLEReceivePipeline addFramer(BLEFramer framer) {
+        return addStage(new FramerStage(framer));
+    }
+
+    /**
+     * 设置对象解码器
+     */
+    public synchronized BLEReceivePipeline setDecoder(Decoder decoder) {
+        this.decoder = decoder;
+        return this;
+    }
+
+    /**
+     * 处理出错被丢弃的数据段数
+     */
+    public synchronized int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * 输入收到的数据
+     */
+    synchronized void feed(byte[] data, int offset, int len, Receiver receiver) {
+        this.receiver = receiver;
+        process(0, data, offset, len);
+    }
+
+    /**
+     * 断开连接后丢弃未处理完的数据
+     */
+    public synchronized void reset() {
+        for (Stage stage : stages) {
+            stage.reset();
+        }
+    }
+
+    private void process(int index, byte[] data, int offset, int len) {
+        try {
+            if (index < stages.size()) {
+                stages.get(index).process(data, offset, len, outputs[index]);
+            } else if (decoder != null) {
+                Object obj = decoder.decode(data, offset, len);
+                if (obj != null) {
+                    receiver.onObject(obj);
+                }
+            } else {
+                receiver.onData(data, offset, len);
+            }
+        } catch (Exception e) {
+            errorCount++;
+            LogUtils.e("接收管道处理失败，丢弃：" + len + "字节", e);
+        }
+    }
+
+    /**
+     * 把上一阶段的输出交给下一阶段
+     */
+    private class StageOutput implements Output {
+
+        private final int next;
+
+        StageOutput(int next) {
+            this.next = next;
+        }
+
+        @Override
+        public void onData(byte[] data, int offset, int len) {
+            process(next, data, offset, len);
+        }
+    }
+
+    /**
+     * 分帧阶段
+     */
+    private static class FramerStage implements Stage, BLEFramer.Callback {
+
+        private final BLEFramer framer;
+        private Output output;
+
+        FramerStage(BLEFramer framer) {
+            this.framer = framer;
+        }
+
+        @Override
+        public void process(byte[] data, int offset, int len, Output output) {
+            this.output = output;
+            framer.feed(data, offset, len, this);
+        }
+
+        @Override
+        public void onFrame(byte[] data, int offset, int len) {
+            output.onData(data, offset, len);
+        }
+
+        @Override
+        public void reset() {
+            framer.reset();
+        }
+    }
+
+    /**
+     * CRC-16/CCITT-FALSE校验阶段：payload | crc(2)，校验通过后输出payload，失败时丢弃
+     */
+    public static class Crc16Validator implements Stage {
+
+        private final boolean bigEndian;
+        private int failedCount;
+
+        /**
+         * @param bigEndian 校验值是否大端
+         */
+        public Crc16Validator(boolean bigEndian) {
+            this.bigEndian = bigEndian;
+        }
+
+        @Override
+        public void process(byte[] data, int offset, int len, Output output) {
+            if (len < 2) {
+                failedCount++;
+                return;
+            }
+            int end = offset + len - 2;
+            int hi = data[bigEndian ? end : end + 1] & 0xFF;
+            int lo = data[bigEndian ? end + 1 : end] & 0xFF;
+            if (((hi << 8) | lo) != BLETransferFrame.crc16(data, offset, len - 2)) {
+                failedCount++;
+                LogUtils.w("CRC16校验失败，丢弃：" + len + "字节");
+                return;
+            }
+            output.onData(data, offset, len - 2);
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        /**
+         * 校验失败的帧数
+         */
+        public int getFailedCount() {
+            return failedCount;
+        }
+    }
+
+    /**
+     * CRC32校验阶段：payload | crc(4，大端)，校验通过后输出payload，失败时丢弃
+     */
+    public static class Crc32Validator implements Stage {
+
+        private final CRC32 crc32 = new CRC32();
+        private int failedCount;
+
+        @Override
+        public void process(byte[] data, int offset, int len, Output output) {
+            if (len < 4) {
+                failedCount++;
+                return;
+            }
+            int end = offset + len - 4;
+            long expected = ((data[end] & 0xFFL) << 24) | ((data[end + 1] & 0xFFL) << 16)
+                    | ((data[end + 2] & 0xFFL) << 8) | (data[end + 3] & 0xFFL);
+            crc32.reset();
+            crc32.update(data, offset, len - 4);
+            if (crc32.getValue() != expected) {
+                failedCount++;
+                LogUtils.w("CRC32校验失败，丢弃：" + len + "字节");
+                return;
+            }
+            output.onData(data, offset, len - 4);
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        /**
+         * 校验失败的帧数
+         */
+        public int getFailedCount() {
+            return failedCount;
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.rhino.ble;
+
+/**
+ * 自动重连统计，延迟为从断开到重新连接成功的时间（毫秒）
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public class BLEReconnectStats {
+
+    /**
+     * 重连尝试次数
+     */
+    private int attemptCount;
+    /**
+     * 重连成功次数
+     */
+    private int successCount;
+    /**
+     * 重试次数用完后放弃的次数
+     */
+    private int failedCount;
+    /**
+     * 出现133错误的次数
+     */
+    private int gattErrorCount;
+    /**
+     * 最近一次重连延迟
+     */
+    private long lastLatency;
+    /**
+     * 最小重连延迟
+     */
+    private long minLatency;
+    /**
+     * 最大重连延迟
+     */
+    private long maxLatency;
+    /**
+     * 重连延迟总和
+     */
+    private long totalLatency;
+
+    void onAttempt() {
+        attemptCount++;
+    }
+
+    void onSuccess(long latency) {
+        successCount++;
+        lastLatency = latency;
+        minLatency = successCount == 1 ? latency : Math.min(minLatency, latency);
+        maxLatency = Math.max(maxLatency, latency);
+        totalLatency += latency;
+    }
+
+    void onFailed() {
+        failedCount++;
+    }
+
+    void onGattError() {
+        gattErrorCount++;
+    }
+
+    BLEReconnectStats copy() {
+        BLEReconnectStats stats = new BLEReconnectStats();
+        stats.attemptCount = attemptCount;
+        stats.successCount = successCount;
+        stats.failedCount = failedCount;
+        stats.gattErrorCount = gattErrorCount;
+        stats.lastLatency = lastLatency;
+        stats.minLatency = minLatency;
+        stats.maxLatency = maxLatency;
+        stats.totalLatency = totalLatency;
+        return stats;
+    }
+
+    public int getAttemptCount() {
+        return attemptCount;
+    }
+
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    public int getGattErrorCount() {
+        return gattErrorCount;
+    }
+
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    public long getMinLatency() {
+        return minLatency;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * 平均重连延迟，没有成功过时为0
+     */
+    public long getAverageLatency() {
+        return successCount == 0 ? 0 : totalLatency / successCount;
+    }
+
+    @Override
+    public String toString() {
+        return "BLEReconnectStats{attempt=" + attemptCount + ", success=" + successCount
+                + ", failed=" + failedCount + ", gattError=" + gattErrorCount
+                + ", latency(last/min/avg/max)=" + lastLatency + "/" + minLatency + "/"
+                + getAverageLatency() + "/" + maxLatency + "ms}";
+    }
+
+}
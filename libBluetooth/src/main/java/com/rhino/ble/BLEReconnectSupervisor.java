@@ -0,0 +1,242 @@
+package com.rhino.ble;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.rhino.log.LogUtils;
+
+import java.util.Random;
+
+/**
+ * 自动重连，由回调驱动，不占用线程
+ * 连接意外断开后：瞬时错误（超时、对端断开等）第一次立即重连，之后按指数退避加随机抖动重连，
+ * 避免多台设备同时断开时集中重连；主动断开连接时停止
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLEReconnectSupervisor {
+
+    /**
+     * 重连目标
+     */
+    interface Target {
+        /**
+         * 重新连接设备，在主线程调用
+         */
+        void reconnect(BluetoothDevice device);
+
+        /**
+         * 重试次数用完，放弃重连
+         */
+        void onReconnectFailed(BluetoothDevice device, String message);
+    }
+
+    /**
+     * 没有状态码的断开，如传统蓝牙读写失败
+     */
+    static final int STATUS_UNKNOWN = -1;
+    /**
+     * GATT_ERROR，通常需要刷新系统的GATT缓存并等待一段时间再连接
+     */
+    static final int STATUS_GATT_ERROR = 133;
+
+    private final Target target;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+    private final BLEReconnectStats stats = new BLEReconnectStats();
+    /**
+     * 是否开启自动重连
+     */
+    private boolean enabled;
+    /**
+     * 退避的初始延迟，毫秒
+     */
+    private long initialDelay = 500;
+    /**
+     * 退避的最大延迟，毫秒
+     */
+    private long maxDelay = 30000;
+    /**
+     * 最多重连次数，小于等于0时不限次数
+     */
+    private int maxAttempts = 10;
+    /**
+     * 需要保持连接的设备，主动断开后为null
+     */
+    private BluetoothDevice device;
+    /**
+     * 本次断开后已重连的次数
+     */
+    private int attempt;
+    /**
+     * 本次断开的时间，未断开时为0
+     */
+    private long lostTime;
+    /**
+     * 是否有等待执行的重连
+     */
+    private boolean pending;
+
+    private final Runnable reconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            BluetoothDevice device;
+            synchronized (BLEReconnectSupervisor.this) {
+                pending = false;
+                device = BLEReconnectSupervisor.this.device;
+                if (device == null) {
+                    return;
+                }
+                stats.onAttempt();
+            }
+            target.reconnect(device);
+        }
+    };
+
+    BLEReconnectSupervisor(Target target) {
+        this.target = target;
+    }
+
+    /**
+     * 设置是否开启自动重连，关闭时取消等待中的重连
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            cancel();
+        }
+    }
+
+    /**
+     * 设置退避参数
+     *
+     * @param initialDelay 初始延迟，毫秒，之后每次加倍
+     * @param maxDelay     最大延迟，毫秒
+     * @param maxAttempts  最多重连次数，小于等于0时不限次数
+     */
+    public synchronized void setBackoff(long initialDelay, long maxDelay, int maxAttempts) {
+        this.initialDelay = Math.max(1, initialDelay);
+        this.maxDelay = Math.max(this.initialDelay, maxDelay);
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * 主动连接设备，之后该设备意外断开时自动重连
+     */
+    public synchronized void watch(BluetoothDevice device) {
+        cancel();
+        this.device = device;
+    }
+
+    /**
+     * 是否正在自动重连
+     */
+    public synchronized boolean isReconnecting() {
+        return device != null && lostTime > 0;
+    }
+
+    /**
+     * 连接成功
+     */
+    public synchronized void onConnected() {
+        if (lostTime > 0) {
+            long latency = SystemClock.elapsedRealtime() - lostTime;
+            stats.onSuccess(latency);
+            LogUtils.d("重连成功，耗时" + latency + "ms，重连" + attempt + "次");
+        }
+        attempt = 0;
+        lostTime = 0;
+    }
+
+    /**
+     * 连接意外断开或连接失败
+     *
+     * @param status 断开的状态码，没有时为{@link #STATUS_UNKNOWN}
+     * @return 是否会自动重连
+     */
+    public boolean onConnectionLost(BluetoothDevice device, int status) {
+        BluetoothDevice failedDevice;
+        synchronized (this) {
+            if (!enabled || device == null || !device.equals(this.device)) {
+                return false;
+            }
+            if (status == STATUS_GATT_ERROR) {
+                stats.onGattError();
+            }
+            if (pending) {
+                // 读写线程同时发现断开
+                return true;
+            }
+            if (lostTime == 0) {
+                lostTime = SystemClock.elapsedRealtime();
+            }
+            if (maxAttempts <= 0 || attempt < maxAttempts) {
+                long delay = nextDelay(status);
+                attempt++;
+                pending = true;
+                LogUtils.d("连接断开：" + status + "，" + delay + "ms后第" + attempt + "次重连");
+                handler.postDelayed(reconnectRunnable, delay);
+                return true;
+            }
+            failedDevice = this.device;
+            stats.onFailed();
+            this.device = null;
+            attempt = 0;
+            lostTime = 0;
+        }
+        LogUtils.w("重连" + maxAttempts + "次失败，放弃重连");
+        target.onReconnectFailed(failedDevice, "重连" + maxAttempts + "次失败");
+        return false;
+    }
+
+    /**
+     * 主动断开连接时取消
+     */
+    public synchronized void cancel() {
+        device = null;
+        attempt = 0;
+        lostTime = 0;
+        pending = false;
+        handler.removeCallbacks(reconnectRunnable);
+    }
+
+    /**
+     * 获取重连统计
+     */
+    public synchronized BLEReconnectStats getStats() {
+        return stats.copy();
+    }
+
+    /**
+     * 下次重连的延迟：瞬时错误第一次立即重连，否则在[base/2, base]之间随机，base每次加倍
+     */
+    private long nextDelay(int status) {
+        if (attempt == 0 && isTransient(status)) {
+            return 0;
+        }
+        long base = Math.min(maxDelay, initialDelay << Math.min(attempt, 16));
+        long half = base / 2;
+        return half + (long) (random.nextDouble() * (base - half + 1));
+    }
+
+    /**
+     * 是否为瞬时错误，立即重连通常可以成功
+     */
+    private static boolean isTransient(int status) {
+        switch (status) {
+            case STATUS_UNKNOWN:
+            case 0x08: // 连接超时（超出范围）
+            case 0x13: // 对端主动断开
+            case 0x16: // 本地主动断开
+            case 0x22: // LMP响应超时
+            case 0x3E: // 建立连接失败
+                return true;
+            default:
+                return false;
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.rhino.ble;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 合并发送、批量接收、大数据传输共用的定时线程，守护线程，不会阻止进程退出，第一次定时时才创建线程
+ * 不需要关闭，使用方不再使用时取消自己的定时任务即可；定时任务应尽快返回，
+ * 可能阻塞的任务（如BLOCK策略下入队）最多占用其中一个线程
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+final class BLEScheduler {
+
+    /**
+     * 定时线程数
+     */
+    private static final int THREAD_COUNT = 2;
+
+    private static final ScheduledExecutorService SCHEDULER = new ScheduledThreadPoolExecutor(THREAD_COUNT,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BLEScheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private BLEScheduler() {
+    }
+
+    static ScheduledExecutorService get() {
+        return SCHEDULER;
+    }
+
+}
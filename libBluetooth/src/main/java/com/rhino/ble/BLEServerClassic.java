@@ -9,6 +9,7 @@ import com.rhino.log.LogUtils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.UUID;
 
 /**
@@ -52,14 +53,114 @@ public class BLEServerClassic {
      */
     private ReadThread readThread;
 
+    /**
+     * 通信的UUID
+     */
+    private volatile UUID uuid;
+
     /**
      * 是否销毁
      */
     private boolean onDestroy = false;
+    /**
+     * 收到数据时是否回调原始byte[]
+     */
+    private boolean receiveBytes = false;
+    /**
+     * 读缓存大小，每次read最多读取的字节数
+     */
+    private int readBufferSize = 1024;
+    /**
+     * 消息压缩，未开启时为null
+     */
+    private volatile BLECompressor compressor;
+    /**
+     * 接收管道，未设置时每次read回调一次
+     */
+    private volatile BLEReceivePipeline receivePipeline;
+    /**
+     * 发送队列，调用线程不会被Socket写入阻塞
+     */
+    private final BLEStreamWriteQueue writeQueue = new BLEStreamWriteQueue(new BLEStreamWriteQueue.Target() {
+        @Override
+        public void write(byte[] data, int offset, int len) {
+            writeSocket(data, offset, len);
+        }
+
+        @Override
+        public void onWritableChanged(boolean writable) {
+            notifyEvent(writable ? BLEEvent.WRITABLE : BLEEvent.NOT_WRITABLE,
+                    writable ? "发送队列已降到低水位" : "发送队列已达到高水位");
+        }
+
+        @Override
+        public void onRejected(String message) {
+            notifyEvent(BLEEvent.WRITE_FAILED, message);
+        }
+    });
 
     public BLEServerClassic(BluetoothAdapter bluetoothAdapter, BLECallback callback) {
         this.bluetoothAdapter = bluetoothAdapter;
         this.callback = callback;
+        this.uuid = UUID.fromString(BLEUtils.BLE_CLASSIC_UUID);
+    }
+
+    /**
+     * 设置通信的UUID，下次连接时生效
+     */
+    public void setUuid(UUID uuid) {
+        this.uuid = uuid;
+    }
+
+    /**
+     * 设置收到数据时是否以READ_DATA事件回调原始byte[]，默认以READ_SUCCESS回调String
+     */
+    public void setReceiveBytes(boolean receiveBytes) {
+        this.receiveBytes = receiveBytes;
+    }
+
+    /**
+     * 设置读缓存大小，每次read最多读取的字节数，高速率数据流可以调大，下次连接时生效
+     */
+    public void setReadBufferSize(int readBufferSize) {
+        this.readBufferSize = Math.max(1, readBufferSize);
+    }
+
+    /**
+     * 设置接收管道，如分帧、校验、解码，设置了解码器时以READ_OBJECT回调解码后的对象，null时每次read回调一次
+     */
+    public void setReceivePipeline(BLEReceivePipeline receivePipeline) {
+        this.receivePipeline = receivePipeline;
+    }
+
+    /**
+     * 设置消息压缩，双方必须设置相同的压缩参数，null时关闭
+     */
+    public void setCompressor(BLECompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    public BLECompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * 设置发送队列容量，待发字节数达到高水位时回调NOT_WRITABLE，降到低水位时回调WRITABLE，
+     * 超过容量时按policy处理
+     *
+     * @param capacity      容量，字节，小于等于0时不限制
+     * @param highWatermark 高水位，小于等于0时等于容量
+     * @param lowWatermark  低水位，小于0时为高水位的一半
+     */
+    public void setWriteQueueLimit(int capacity, int highWatermark, int lowWatermark, BLEOverflowPolicy policy) {
+        writeQueue.setLimit(capacity, highWatermark, lowWatermark, policy);
+    }
+
+    /**
+     * 获取发送队列中待发的字节数
+     */
+    public int getWriteQueueBytes() {
+        return writeQueue.getQueuedBytes();
     }
 
     /**
@@ -83,11 +184,38 @@ public class BLEServerClassic {
      * 发送数据
      */
     public void doWrite(String msg) {
+        doWrite(msg.getBytes());
+    }
+
+    /**
+     * 发送数据
+     */
+    public void doWrite(byte[] data) {
+        doWrite(data, 0, data.length);
+    }
+
+    /**
+     * 发送数据，放入发送队列后由发送线程写入
+     */
+    public void doWrite(byte[] data, int offset, int len) {
+        BLECompressor compressor = this.compressor;
+        if (compressor != null) {
+            data = compressor.encode(data, offset, len);
+            offset = 0;
+            len = data.length;
+        }
+        writeQueue.offer(data, offset, len);
+    }
+
+    /**
+     * 写入Socket
+     */
+    private void writeSocket(byte[] data, int offset, int len) {
         OutputStream mmOutStream = null;
         try {
             mmOutStream = bluetoothSocket.getOutputStream();
-            mmOutStream.write(msg.getBytes());
-            LogUtils.i("发送数据成功：" + msg);
+            mmOutStream.write(data, offset, len);
+            LogUtils.i("发送数据成功：" + len + "字节");
             notifyEvent(BLEEvent.WRITE_SUCCESS, "发送数据成功");
         } catch (Exception e) {
             LogUtils.e("发送数据失败", e);
@@ -164,6 +292,7 @@ public class BLEServerClassic {
      */
     public void disconnect() {
         LogUtils.d("断开服务端连接");
+        writeQueue.clear();
         closeSocket();
         stopAcceptConnectThread();
         stopReadThread();
@@ -175,6 +304,7 @@ public class BLEServerClassic {
     public void onDestroy() {
         onDestroy = true;
         disconnect();
+        writeQueue.release();
     }
 
     /**
@@ -186,6 +316,55 @@ public class BLEServerClassic {
         }
     }
 
+    /**
+     * 解压出完整消息
+     */
+    private final BLECompressor.Callback readCallback = new BLECompressor.Callback() {
+        @Override
+        public void onMessage(byte[] data, int offset, int len) {
+            receive(data, offset, len);
+        }
+    };
+
+    /**
+     * 接收管道输出
+     */
+    private final BLEReceivePipeline.Receiver pipelineReceiver = new BLEReceivePipeline.Receiver() {
+        @Override
+        public void onData(byte[] data, int offset, int len) {
+            notifyRead(data, offset, len);
+        }
+
+        @Override
+        public void onObject(Object obj) {
+            notifyEvent(BLEEvent.READ_OBJECT, obj);
+        }
+    };
+
+    /**
+     * 经过接收管道后回调收到的数据
+     */
+    private void receive(byte[] data, int offset, int len) {
+        BLEReceivePipeline receivePipeline = this.receivePipeline;
+        if (receivePipeline != null) {
+            receivePipeline.feed(data, offset, len, pipelineReceiver);
+        } else {
+            notifyRead(data, offset, len);
+        }
+    }
+
+    /**
+     * 回调收到的数据，data只在调用期间有效
+     */
+    private void notifyRead(byte[] data, int offset, int len) {
+        LogUtils.d("读取数据成功：" + len + "字节");
+        if (receiveBytes) {
+            notifyEvent(BLEEvent.READ_DATA, Arrays.copyOfRange(data, offset, offset + len));
+        } else {
+            notifyEvent(BLEEvent.READ_SUCCESS, new String(data, offset, len));
+        }
+    }
+
     /**
      * 服务器端等待连接线程
      */
@@ -195,11 +374,17 @@ public class BLEServerClassic {
         public void run() {
             try {
                 bluetoothServerSocket = bluetoothAdapter.listenUsingRfcommWithServiceRecord(BLEUtils.NAME,
-                        UUID.fromString(BLEUtils.BLE_CLASSIC_UUID));
+                        uuid);
                 notifyEvent(BLEEvent.ACCEPT_CONNECTING, "等待客户端连接中");
                 // 等待客户端连接
                 BluetoothSocket socket = bluetoothServerSocket.accept();
                 bluetoothSocket = socket;
+                if (compressor != null) {
+                    compressor.reset();
+                }
+                if (receivePipeline != null) {
+                    receivePipeline.reset();
+                }
                 notifyEvent(BLEEvent.ACCEPT_CONNECT_SUCCESS, "客户端已连接");
                 stopReadThread();
                 startReadThread();
@@ -221,19 +406,19 @@ public class BLEServerClassic {
 
         @Override
         public void run() {
-            byte[] buffer = new byte[1024];
+            // 读缓存在整个连接期间复用，解压时直接在缓存上解析，否则回调时只复制一次
+            byte[] buffer = new byte[readBufferSize];
             int bytes;
             InputStream inputStream = null;
             try {
                 inputStream = bluetoothSocket.getInputStream();
                 while (!isInterrupted() && (bytes = inputStream.read(buffer)) > 0) {
-                    byte[] buf_data = new byte[bytes];
-                    for (int i = 0; i < bytes; i++) {
-                        buf_data[i] = buffer[i];
+                    BLECompressor compressor = BLEServerClassic.this.compressor;
+                    if (compressor != null) {
+                        compressor.decode(buffer, 0, bytes, readCallback);
+                    } else {
+                        receive(buffer, 0, bytes);
                     }
-                    String msg = new String(buf_data);
-                    LogUtils.i("读取数据成功：" + msg);
-                    notifyEvent(BLEEvent.READ_SUCCESS, msg);
                 }
             } catch (Exception e) {
                 if (!onDestroy && bluetoothSocket != null && !bluetoothSocket.isConnected()) {
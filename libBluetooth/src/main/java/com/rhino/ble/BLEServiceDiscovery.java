@@ -0,0 +1,207 @@
+package com.rhino.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.rhino.log.LogUtils;
+
+/**
+ * 服务扫描，由回调驱动，不占用线程
+ * 连接后等待初始延迟（或MTU协商完成）再调用discoverServices，超时和失败时加大延迟重试；
+ * 初始延迟根据历次结果自适应：成功后逐步缩短，失败后加倍；有GATT缓存的设备不等待初始延迟
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLEServiceDiscovery {
+
+    /**
+     * 扫描目标
+     */
+    interface Target {
+        /**
+         * 调用BluetoothGatt.discoverServices
+         */
+        boolean discoverServices();
+
+        /**
+         * 重试后仍然失败
+         */
+        void onDiscoverFailed(String message);
+    }
+
+    /**
+     * 初始延迟下限，毫秒
+     */
+    private static final long MIN_DELAY = 100;
+    /**
+     * 初始延迟上限，毫秒
+     */
+    private static final long MAX_DELAY = 1600;
+
+    private final Target target;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /**
+     * 当前初始延迟，毫秒
+     */
+    private long delay = 600;
+    /**
+     * 等待onServicesDiscovered的超时时间，毫秒
+     */
+    private long timeout = 5000;
+    /**
+     * 失败后的重试次数
+     */
+    private int retryCount = 2;
+    /**
+     * 当前已重试次数
+     */
+    private int retry;
+    /**
+     * 是否正在扫描
+     */
+    private boolean running;
+    /**
+     * 本次是否已调用discoverServices
+     */
+    private boolean issued;
+    /**
+     * 连接成功的时间
+     */
+    private long connectedTime;
+
+    private final Runnable discoverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            discover();
+        }
+    };
+
+    private final Runnable timeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (BLEServiceDiscovery.this) {
+                if (!running) {
+                    return;
+                }
+                LogUtils.w("扫描服务超时");
+            }
+            onFailed("扫描服务超时");
+        }
+    };
+
+    BLEServiceDiscovery(Target target) {
+        this.target = target;
+    }
+
+    public synchronized void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public synchronized void setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+    }
+
+    /**
+     * 连接成功后开始扫描
+     *
+     * @param waitMtu 是否等待MTU协商完成，协商完成后立即扫描，最多等待初始延迟
+     * @param cached  是否有该设备的GATT缓存，有缓存时设备已成功连接过，不等待初始延迟
+     */
+    public synchronized void start(boolean waitMtu, boolean cached) {
+        cancel();
+        running = true;
+        retry = 0;
+        connectedTime = SystemClock.elapsedRealtime();
+        if (cached) {
+            LogUtils.d("有GATT缓存，立即扫描服务");
+            handler.post(discoverRunnable);
+            return;
+        }
+        LogUtils.d("延迟扫描服务：" + delay + "ms" + (waitMtu ? "，或等待MTU协商完成" : ""));
+        handler.postDelayed(discoverRunnable, delay);
+    }
+
+    /**
+     * MTU协商完成，GATT空闲，不再等待初始延迟
+     */
+    public synchronized void onMtuChanged() {
+        if (running && !issued) {
+            handler.removeCallbacks(discoverRunnable);
+            handler.post(discoverRunnable);
+        }
+    }
+
+    /**
+     * onServicesDiscovered回调
+     *
+     * @return 是否扫描成功
+     */
+    public boolean onServicesDiscovered(int status) {
+        synchronized (this) {
+            if (!running) {
+                return status == BluetoothGatt.GATT_SUCCESS;
+            }
+            handler.removeCallbacks(timeoutRunnable);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                running = false;
+                issued = false;
+                // 成功后缩短下次的初始延迟
+                delay = Math.max(MIN_DELAY, delay - delay / 4);
+                LogUtils.d("扫描服务成功，耗时" + (SystemClock.elapsedRealtime() - connectedTime) + "ms");
+                return true;
+            }
+            LogUtils.w("扫描服务失败：" + status);
+        }
+        onFailed("扫描服务失败：" + status);
+        return false;
+    }
+
+    /**
+     * 断开连接时取消
+     */
+    public synchronized void cancel() {
+        running = false;
+        issued = false;
+        handler.removeCallbacks(discoverRunnable);
+        handler.removeCallbacks(timeoutRunnable);
+    }
+
+    private void discover() {
+        synchronized (this) {
+            if (!running || issued) {
+                return;
+            }
+            issued = true;
+            LogUtils.d("开始扫描服务");
+            if (target.discoverServices()) {
+                handler.postDelayed(timeoutRunnable, timeout);
+                return;
+            }
+            LogUtils.w("discoverServices调用失败");
+        }
+        onFailed("扫描服务失败");
+    }
+
+    private void onFailed(String message) {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            // 失败后加大初始延迟
+            delay = Math.min(MAX_DELAY, delay * 2);
+            issued = false;
+            if (retry < retryCount) {
+                retry++;
+                LogUtils.d("重新扫描服务：" + retry + "，延迟" + delay + "ms");
+                handler.postDelayed(discoverRunnable, delay);
+                return;
+            }
+            running = false;
+        }
+        target.onDiscoverFailed(message);
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.rhino.ble;
+
+import com.rhino.log.LogUtils;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * 经典蓝牙发送队列
+ * 调用线程只把数据放入队列，由发送线程依次写入Socket，OutputStream.write阻塞时不会阻塞调用线程；
+ * 待发字节数受{@link BLEWriteLimit}限制，队列满时按{@link BLEOverflowPolicy}处理
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLEStreamWriteQueue {
+
+    /**
+     * 发送目标
+     */
+    interface Target {
+        /**
+         * 写入Socket，在发送线程中调用
+         */
+        void write(byte[] data, int offset, int len);
+
+        /**
+         * 待发数据达到高水位或降到低水位
+         */
+        void onWritableChanged(boolean writable);
+
+        /**
+         * 队列满，FAIL策略下本条数据发送失败
+         */
+        void onRejected(String message);
+    }
+
+    /**
+     * 发送目标
+     */
+    private final Target target;
+    /**
+     * 待发数据，入队时已复制
+     */
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    /**
+     * 容量和水位
+     */
+    private final BLEWriteLimit limit;
+    /**
+     * 可写状态的变化，在锁内记录，释放锁后回调
+     */
+    private final BLECallbackQueue callbacks = new BLECallbackQueue();
+    /**
+     * 发送线程
+     */
+    private WriteThread writeThread;
+
+    BLEStreamWriteQueue(Target target) {
+        this.target = target;
+        this.limit = new BLEWriteLimit(new BLEWriteLimit.Listener() {
+            @Override
+            public void onWritableChanged(final boolean writable) {
+                callbacks.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        BLEStreamWriteQueue.this.target.onWritableChanged(writable);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 设置队列容量和高低水位
+     */
+    public void setLimit(int capacity, int highWatermark, int lowWatermark, BLEOverflowPolicy policy) {
+        synchronized (this) {
+            limit.set(capacity, highWatermark, lowWatermark, policy);
+            notifyAll();
+        }
+        callbacks.drain();
+    }
+
+    /**
+     * 待发字节数
+     */
+    public synchronized int getQueuedBytes() {
+        return limit.getBytes();
+    }
+
+    /**
+     * 队列满被丢弃的数据数
+     */
+    public synchronized int getDroppedCount() {
+        return limit.getDroppedCount();
+    }
+
+    /**
+     * 数据入队，队列满时按{@link BLEOverflowPolicy}处理，BLOCK策略会阻塞调用线程
+     *
+     * @return 是否已入队
+     */
+    public boolean offer(byte[] data, int offset, int len) {
+        if (len <= 0) {
+            return true;
+        }
+        byte[] copy = Arrays.copyOfRange(data, offset, offset + len);
+        boolean added = false;
+        boolean failed = false;
+        synchronized (this) {
+            while (limit.isFull(len)) {
+                BLEOverflowPolicy policy = limit.getPolicy();
+                if (policy == BLEOverflowPolicy.BLOCK) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                } else if (policy == BLEOverflowPolicy.DROP_OLDEST && !queue.isEmpty()) {
+                    limit.remove(queue.poll().length);
+                    limit.onDropped();
+                } else if (policy == BLEOverflowPolicy.FAIL) {
+                    failed = true;
+                    break;
+                } else {
+                    // DROP_NEWEST，或剩下的都在发送中
+                    limit.onDropped();
+                    LogUtils.d("发送队列已满，丢弃：" + len + "字节");
+                    break;
+                }
+            }
+            if (!failed && !limit.isFull(len)) {
+                queue.add(copy);
+                limit.add(len);
+                if (writeThread == null) {
+                    writeThread = new WriteThread();
+                    writeThread.start();
+                }
+                notifyAll();
+                added = true;
+            }
+        }
+        callbacks.drain();
+        if (failed) {
+            target.onRejected("发送队列已满");
+        }
+        return added;
+    }
+
+    /**
+     * 清空队列
+     */
+    public void clear() {
+        synchronized (this) {
+            queue.clear();
+            limit.reset();
+            notifyAll();
+        }
+        callbacks.drain();
+    }
+
+    /**
+     * 不再使用时调用
+     */
+    public void release() {
+        synchronized (this) {
+            if (writeThread != null) {
+                writeThread.interrupt();
+                writeThread = null;
+            }
+        }
+        clear();
+    }
+
+    /**
+     * 发送线程
+     */
+    private class WriteThread extends Thread {
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    byte[] data;
+                    synchronized (BLEStreamWriteQueue.this) {
+                        while (queue.isEmpty()) {
+                            BLEStreamWriteQueue.this.wait();
+                        }
+                        data = queue.poll();
+                    }
+                    target.write(data, 0, data.length);
+                    synchronized (BLEStreamWriteQueue.this) {
+                        limit.remove(data.length);
+                        BLEStreamWriteQueue.this.notifyAll();
+                    }
+                    callbacks.drain();
+                }
+            } catch (InterruptedException e) {
+                LogUtils.d("发送线程结束");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,572 @@
+package com.rhino.ble;
+
+import com.rhino.log.LogUtils;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 大数据可靠传输，适用于低功耗蓝牙和传统蓝牙
+ * 数据按块编号发送，接收端按窗口确认（累计确认 + 32块选择确认），
+ * 发送端只重传缺失的块；同一传输编号、同样内容再次发送时从接收端已连续收到的位置继续
+ * <p>
+ * Transport.send和回调中可以同步调用对端或本端的方法（如内存中直接对接的两端、回调中cancel），
+ * 每次发送和回调之后都会重新检查当前传输是否已结束
+ * <p>
+ * 用法：实现{@link Transport}把帧发送出去（如BLEClientLe.write(device, frame, 0, len, BLEWriteFuture.PRIORITY_LOW)），
+ * 收到的原始数据（READ_DATA事件）全部交给{@link #onReceive(byte[], int, int)}，对端使用同样的协议
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public class BLETransfer {
+
+    /**
+     * 帧发送通道
+     */
+    public interface Transport {
+        /**
+         * 发送一帧，frame为新分配的数组，可以直接持有
+         */
+        void send(byte[] frame, int offset, int len);
+    }
+
+    /**
+     * 传输回调，在接收线程或定时线程中调用
+     */
+    public interface Listener {
+        /**
+         * 发送进度，ackedBytes为对端已连续收到的长度
+         */
+        void onSendProgress(int id, int ackedBytes, int totalBytes);
+
+        /**
+         * 发送完成
+         */
+        void onSendComplete(int id);
+
+        /**
+         * 发送失败
+         */
+        void onSendFailed(int id, String msg);
+
+        /**
+         * 接收完成
+         */
+        void onReceiveComplete(int id, byte[] data);
+    }
+
+    /**
+     * 选择确认的块数
+     */
+    private static final int SACK_BITS = 32;
+
+    private final Transport transport;
+    private final Listener listener;
+    private final BLETransferFrame.Decoder decoder;
+    private final ScheduledExecutorService scheduler = BLEScheduler.get();
+
+    /**
+     * 每块长度
+     */
+    private int blockSize = 512;
+    /**
+     * 发送窗口，最多这么多块未确认
+     */
+    private int window = 16;
+    /**
+     * 接收端每收到这么多块确认一次
+     */
+    private int ackEvery = 4;
+    /**
+     * 重传超时，毫秒
+     */
+    private long retransmitTimeout = 1000;
+    /**
+     * 连续超时没有进展的最大次数
+     */
+    private int maxRetries = 5;
+    /**
+     * 接收的最大长度
+     */
+    private int maxReceiveLength = 16 * 1024 * 1024;
+
+    /**
+     * 正在发送的传输，同时只有一个
+     */
+    private Sending sending;
+    /**
+     * 接收中和已接收完成的传输，按编号保存以便续传，接收完成的只保留确认所需的长度和进度
+     */
+    private final Map<Integer, Receiving> receivings = new HashMap<>();
+
+    public BLETransfer(Transport transport, Listener listener) {
+        this.transport = transport;
+        this.listener = listener;
+        this.decoder = new BLETransferFrame.Decoder(new BLETransferFrame.Callback() {
+            @Override
+            public void onFrame(int type, int id, byte[] body, int offset, int len) {
+                dispatchFrame(type, id, body, offset, len);
+            }
+        });
+    }
+
+    /**
+     * 设置每块长度，建议按MTU - 3 - {@link BLETransferFrame#DATA_OVERHEAD}的整数倍设置
+     */
+    public synchronized void setBlockSize(int blockSize) {
+        this.blockSize = Math.max(1, Math.min(BLETransferFrame.MAX_BLOCK_SIZE, blockSize));
+    }
+
+    /**
+     * 设置发送窗口（未确认的最大块数）
+     */
+    public synchronized void setWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * 设置接收端每收到多少块确认一次，乱序、重复或收完时立即确认
+     */
+    public synchronized void setAckEvery(int ackEvery) {
+        this.ackEvery = Math.max(1, ackEvery);
+    }
+
+    /**
+     * 设置重传超时（毫秒）和连续超时没有进展的最大次数
+     */
+    public synchronized void setRetransmit(long retransmitTimeout, int maxRetries) {
+        this.retransmitTimeout = retransmitTimeout;
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * 设置接收的最大长度
+     */
+    public synchronized void setMaxReceiveLength(int maxReceiveLength) {
+        this.maxReceiveLength = maxReceiveLength;
+    }
+
+    /**
+     * 发送数据，对端已收到过同一编号、同样内容的部分数据时从断点继续
+     *
+     * @param id 传输编号，0-255
+     */
+    public void send(int id, byte[] data) {
+        send(id, data, 0);
+    }
+
+    /**
+     * 发送数据，从offset（按块对齐）开始，对端报告的断点更靠后时从对端断点继续
+     *
+     * @param id 传输编号，0-255
+     */
+    public synchronized void send(int id, byte[] data, int offset) {
+        if (sending != null) {
+            failSending("被新的传输取消");
+        }
+        Sending sending = new Sending(id & 0xFF, data, blockSize, offset / blockSize);
+        this.sending = sending;
+        LogUtils.d("开始传输" + sending.id + "，" + data.length + "字节，" + sending.blockCount + "块");
+        sendStart(sending);
+    }
+
+    /**
+     * 取消正在发送的传输
+     */
+    public synchronized void cancel() {
+        if (sending != null) {
+            failSending("已取消");
+        }
+    }
+
+    /**
+     * 获取对端已连续收到的发送长度
+     */
+    public synchronized int getSendOffset(int id) {
+        return sending != null && sending.id == (id & 0xFF) ? Math.min(sending.data.length, sending.base * sending.blockSize) : 0;
+    }
+
+    /**
+     * 获取已连续收到的接收长度
+     */
+    public synchronized int getReceiveOffset(int id) {
+        Receiving receiving = receivings.get(id & 0xFF);
+        return receiving == null ? 0 : Math.min(receiving.total, receiving.next * receiving.blockSize);
+    }
+
+    /**
+     * 丢弃接收状态，接收完成后仍保留状态以便回复重复的数据；同一编号收到内容不同的传输时自动丢弃
+     */
+    public synchronized void clearReceive(int id) {
+        receivings.remove(id & 0xFF);
+    }
+
+    /**
+     * 收到的原始数据，可以任意拆分
+     */
+    public synchronized void onReceive(byte[] data, int offset, int len) {
+        decoder.feed(data, offset, len);
+    }
+
+    /**
+     * 不再使用时调用
+     */
+    public synchronized void release() {
+        cancel();
+        receivings.clear();
+        decoder.reset();
+    }
+
+    private void dispatchFrame(int type, int id, byte[] body, int offset, int len) {
+        switch (type) {
+            case BLETransferFrame.TYPE_START:
+                if (len >= 10) {
+                    onStart(id, BLETransferFrame.getInt(body, offset), BLETransferFrame.getShort(body, offset + 4),
+                            BLETransferFrame.getInt(body, offset + 6));
+                }
+                break;
+            case BLETransferFrame.TYPE_DATA:
+                if (len >= 4) {
+                    onData(id, BLETransferFrame.getInt(body, offset), body, offset + 4, len - 4);
+                }
+                break;
+            case BLETransferFrame.TYPE_ACK:
+                if (len >= 8) {
+                    onAck(id, BLETransferFrame.getInt(body, offset), BLETransferFrame.getInt(body, offset + 4));
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // ------------------------------ 接收 ------------------------------
+
+    private void onStart(int id, int total, int blockSize, int checksum) {
+        Receiving receiving = receivings.get(id);
+        if (receiving == null || receiving.total != total || receiving.blockSize != blockSize
+                || receiving.checksum != checksum) {
+            if (total < 0 || total > maxReceiveLength || blockSize <= 0) {
+                LogUtils.w("拒绝传输" + id + "，长度" + total);
+                return;
+            }
+            // 编号相同但内容不同，是新的传输，丢弃之前的接收状态
+            receiving = new Receiving(total, blockSize, checksum);
+            receivings.put(id, receiving);
+        } else {
+            LogUtils.d("续传" + id + "，已收到" + receiving.next + "块");
+        }
+        // 长度为0时收到START即完成
+        boolean complete = receiving.next == receiving.blockCount;
+        if (complete && !receiving.delivered && !verify(id, receiving)) {
+            return;
+        }
+        sendAck(id, receiving);
+        if (complete && !receiving.delivered) {
+            deliver(id, receiving);
+        }
+    }
+
+    private void onData(int id, int seq, byte[] data, int offset, int len) {
+        Receiving receiving = receivings.get(id);
+        if (receiving == null || seq < 0 || seq >= receiving.blockCount) {
+            return;
+        }
+        int blockOffset = seq * receiving.blockSize;
+        if (len != Math.min(receiving.blockSize, receiving.total - blockOffset)) {
+            return;
+        }
+        boolean ackNow;
+        if (receiving.delivered || receiving.received.get(seq)) {
+            // 重复块，说明确认丢了
+            ackNow = true;
+        } else {
+            System.arraycopy(data, offset, receiving.data, blockOffset, len);
+            receiving.received.set(seq);
+            ackNow = seq != receiving.next;
+            while (receiving.received.get(receiving.next)) {
+                receiving.next++;
+            }
+            ackNow |= ++receiving.sinceAck >= ackEvery;
+        }
+        boolean complete = receiving.next == receiving.blockCount;
+        if (complete && !receiving.delivered && !verify(id, receiving)) {
+            return;
+        }
+        if (ackNow || complete) {
+            sendAck(id, receiving);
+        }
+        if (complete && !receiving.delivered) {
+            deliver(id, receiving);
+        }
+    }
+
+    /**
+     * 回调接收完成，之后只保留确认重复数据所需的状态，释放数据
+     */
+    private void deliver(int id, Receiving receiving) {
+        byte[] data = receiving.data;
+        receiving.delivered = true;
+        receiving.data = null;
+        receiving.received = null;
+        listener.onReceiveComplete(id, data);
+    }
+
+    /**
+     * 收完后校验整体CRC32，不一致时丢弃接收状态且不确认完成，发送端超时后失败
+     */
+    private boolean verify(int id, Receiving receiving) {
+        if (checksum(receiving.data) == receiving.checksum) {
+            return true;
+        }
+        LogUtils.w("传输" + id + "校验失败，丢弃");
+        receivings.remove(id);
+        return false;
+    }
+
+    private void sendAck(int id, Receiving receiving) {
+        receiving.sinceAck = 0;
+        int sack = 0;
+        for (int i = 0; i < SACK_BITS && !receiving.delivered; i++) {
+            if (receiving.received.get(receiving.next + 1 + i)) {
+                sack |= 1 << i;
+            }
+        }
+        byte[] frame = BLETransferFrame.ack(id, receiving.next, sack);
+        transport.send(frame, 0, frame.length);
+    }
+
+    // ------------------------------ 发送 ------------------------------
+
+    private void sendStart(Sending sending) {
+        byte[] frame = BLETransferFrame.start(sending.id, sending.data.length, sending.blockSize, sending.checksum);
+        transport.send(frame, 0, frame.length);
+        scheduleRetransmit(sending);
+    }
+
+    private void onAck(int id, int next, int sack) {
+        Sending sending = this.sending;
+        if (sending == null || sending.id != id || next < 0 || next > sending.blockCount) {
+            return;
+        }
+        if (!sending.started) {
+            // START的确认，从双方断点中靠后的位置开始
+            sending.started = true;
+            sending.base = Math.max(sending.base, next);
+            sending.nextSeq = sending.base;
+        }
+        boolean progress = next > sending.base;
+        if (progress) {
+            sending.base = next;
+            sending.retries = 0;
+            listener.onSendProgress(id, Math.min(sending.data.length, next * sending.blockSize), sending.data.length);
+            if (this.sending != sending) {
+                // 回调中取消或开始了新的传输
+                return;
+            }
+        }
+        if (sending.nextSeq < sending.base) {
+            sending.nextSeq = sending.base;
+        }
+        int highest = -1;
+        // 忽略超出块数的选择确认位，避免越界
+        for (int i = 0; i < SACK_BITS && next + 1 + i < sending.blockCount; i++) {
+            if ((sack & (1 << i)) != 0) {
+                highest = next + 1 + i;
+                sending.sacked.set(highest);
+            }
+        }
+        if (sending.base >= sending.blockCount) {
+            this.sending = null;
+            cancelRetransmit(sending);
+            LogUtils.d("传输" + id + "完成");
+            listener.onSendComplete(id);
+            return;
+        }
+        // 选择重传：对端已收到更靠后的块，中间缺的块立即重传（同一块半个超时内只重传一次）
+        long now = System.currentTimeMillis();
+        for (int seq = sending.base; seq < highest; seq++) {
+            if (!sending.sacked.get(seq) && now - sending.sentTimes[seq] >= retransmitTimeout / 2
+                    && !sendBlock(sending, seq, now)) {
+                return;
+            }
+        }
+        if (fillWindow(sending) && progress) {
+            scheduleRetransmit(sending);
+        }
+    }
+
+    /**
+     * 发送窗口内未发送过的块
+     *
+     * @return 发送后该传输是否仍在进行
+     */
+    private boolean fillWindow(Sending sending) {
+        long now = System.currentTimeMillis();
+        while (sending.nextSeq < sending.blockCount && sending.nextSeq < sending.base + window) {
+            // 先移动nextSeq，发送时同步收到的确认可能已经继续填充窗口
+            int seq = sending.nextSeq++;
+            if (!sending.sacked.get(seq) && !sendBlock(sending, seq, now)) {
+                return false;
+            }
+        }
+        return this.sending == sending;
+    }
+
+    /**
+     * 发送一块
+     *
+     * @return 发送后该传输是否仍在进行，Transport同步收到确认时可能已经完成或失败
+     */
+    private boolean sendBlock(Sending sending, int seq, long now) {
+        int offset = seq * sending.blockSize;
+        int len = Math.min(sending.blockSize, sending.data.length - offset);
+        byte[] frame = BLETransferFrame.data(sending.id, seq, sending.data, offset, len);
+        sending.sentTimes[seq] = now;
+        transport.send(frame, 0, frame.length);
+        return this.sending == sending;
+    }
+
+    /**
+     * 重新开始重传定时，该传输已结束时不定时
+     */
+    private void scheduleRetransmit(final Sending sending) {
+        if (this.sending != sending) {
+            return;
+        }
+        cancelRetransmit(sending);
+        try {
+            sending.timer = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onRetransmitTimeout(sending);
+                }
+            }, retransmitTimeout, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            LogUtils.e("重传定时失败", e);
+        }
+    }
+
+    private void cancelRetransmit(Sending sending) {
+        if (sending.timer != null) {
+            sending.timer.cancel(false);
+            sending.timer = null;
+        }
+    }
+
+    private synchronized void onRetransmitTimeout(Sending sending) {
+        if (this.sending != sending) {
+            return;
+        }
+        if (++sending.retries > maxRetries) {
+            failSending("超时无响应");
+            return;
+        }
+        LogUtils.w("传输" + sending.id + "超时，第" + sending.retries + "次重传");
+        if (!sending.started) {
+            sendStart(sending);
+            return;
+        }
+        // 超时重传窗口内所有未确认的块
+        long now = System.currentTimeMillis();
+        for (int seq = sending.base; seq < sending.nextSeq; seq++) {
+            if (!sending.sacked.get(seq) && !sendBlock(sending, seq, now)) {
+                return;
+            }
+        }
+        if (fillWindow(sending)) {
+            scheduleRetransmit(sending);
+        }
+    }
+
+    private void failSending(String msg) {
+        Sending sending = this.sending;
+        if (sending == null) {
+            return;
+        }
+        this.sending = null;
+        cancelRetransmit(sending);
+        LogUtils.w("传输" + sending.id + "失败：" + msg);
+        listener.onSendFailed(sending.id, msg);
+    }
+
+    /**
+     * 发送状态
+     */
+    private static class Sending {
+        final int id;
+        final byte[] data;
+        final int blockSize;
+        final int blockCount;
+        final long[] sentTimes;
+        /**
+         * 数据的CRC32，接收端据此区分同一编号的不同内容
+         */
+        final int checksum;
+        final BitSet sacked = new BitSet();
+        /**
+         * 对端已连续收到的块数
+         */
+        int base;
+        /**
+         * 下一个未发送过的块
+         */
+        int nextSeq;
+        boolean started;
+        int retries;
+        ScheduledFuture<?> timer;
+
+        Sending(int id, byte[] data, int blockSize, int base) {
+            this.id = id;
+            this.data = data;
+            this.blockSize = blockSize;
+            this.blockCount = (data.length + blockSize - 1) / blockSize;
+            this.sentTimes = new long[blockCount];
+            this.checksum = checksum(data);
+            this.base = Math.max(0, Math.min(base, blockCount));
+            this.nextSeq = this.base;
+        }
+    }
+
+    /**
+     * 接收状态
+     */
+    private static class Receiving {
+        final int total;
+        final int blockSize;
+        final int blockCount;
+        final int checksum;
+        /**
+         * 接收完成后置空
+         */
+        byte[] data;
+        BitSet received = new BitSet();
+        /**
+         * 已连续收到的块数
+         */
+        int next;
+        int sinceAck;
+        boolean delivered;
+
+        Receiving(int total, int blockSize, int checksum) {
+            this.total = total;
+            this.data = new byte[total];
+            this.blockSize = blockSize;
+            this.blockCount = (total + blockSize - 1) / blockSize;
+            this.checksum = checksum;
+        }
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, data.length);
+        return (int) crc32.getValue();
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.rhino.ble;
+
+import java.util.Arrays;
+
+/**
+ * 大数据传输的帧格式
+ * <pre>
+ * magic(1) | type(1) | id(1) | bodyLen(2) | hcrc(1) | body(bodyLen) | crc16(2)
+ * START body: total(4) | blockSize(2) | checksum(4)，checksum为数据的CRC32
+ * DATA  body: seq(4) | payload
+ * ACK   body: next(4) | sack(4)，next之前的块全部收到，sack第i位表示第next + 1 + i块已收到
+ * </pre>
+ * 多字节整数均为大端，crc16为CRC-16/CCITT-FALSE，校验type到body；
+ * hcrc为type到bodyLen的crc16低字节，长度字段出错时立即丢弃，不会等待一个错误长度的帧
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLETransferFrame {
+
+    public static final int MAGIC = 0xB7;
+    public static final int TYPE_START = 1;
+    public static final int TYPE_DATA = 2;
+    public static final int TYPE_ACK = 3;
+
+    /**
+     * 帧头长度
+     */
+    public static final int HEADER_SIZE = 6;
+    /**
+     * 帧头加校验的长度
+     */
+    public static final int OVERHEAD = HEADER_SIZE + 2;
+    /**
+     * DATA帧除数据外的长度
+     */
+    public static final int DATA_OVERHEAD = OVERHEAD + 4;
+
+    /**
+     * 每块数据的最大长度
+     */
+    public static final int MAX_BLOCK_SIZE = 0xFFFF - 4;
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    /**
+     * 解析出的帧
+     */
+    interface Callback {
+        /**
+         * body只在回调内有效
+         */
+        void onFrame(int type, int id, byte[] body, int offset, int len);
+    }
+
+    static byte[] start(int id, int total, int blockSize, int checksum) {
+        byte[] frame = allocate(TYPE_START, id, 10);
+        putInt(frame, HEADER_SIZE, total);
+        putShort(frame, HEADER_SIZE + 4, blockSize);
+        putInt(frame, HEADER_SIZE + 6, checksum);
+        return finish(frame);
+    }
+
+    static byte[] data(int id, int seq, byte[] data, int offset, int len) {
+        byte[] frame = allocate(TYPE_DATA, id, 4 + len);
+        putInt(frame, HEADER_SIZE, seq);
+        System.arraycopy(data, offset, frame, HEADER_SIZE + 4, len);
+        return finish(frame);
+    }
+
+    static byte[] ack(int id, int next, int sack) {
+        byte[] frame = allocate(TYPE_ACK, id, 8);
+        putInt(frame, HEADER_SIZE, next);
+        putInt(frame, HEADER_SIZE + 4, sack);
+        return finish(frame);
+    }
+
+    static int getInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24
+                | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8
+                | (data[offset + 3] & 0xFF);
+    }
+
+    static int getShort(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+    }
+
+    static int crc16(byte[] data, int offset, int len) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + len; i++) {
+            crc = ((crc << 8) ^ CRC_TABLE[((crc >> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    private static byte[] allocate(int type, int id, int bodyLen) {
+        byte[] frame = new byte[OVERHEAD + bodyLen];
+        frame[0] = (byte) MAGIC;
+        frame[1] = (byte) type;
+        frame[2] = (byte) id;
+        putShort(frame, 3, bodyLen);
+        frame[5] = (byte) crc16(frame, 1, 4);
+        return frame;
+    }
+
+    private static byte[] finish(byte[] frame) {
+        putShort(frame, frame.length - 2, crc16(frame, 1, frame.length - 3));
+        return frame;
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    private static void putShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    /**
+     * 流式解析，数据可以任意拆分或合并输入；校验失败时跳过一个字节重新同步
+     */
+    static class Decoder {
+
+        private final Callback callback;
+        private byte[] buffer = new byte[256];
+        private int start;
+        private int end;
+
+        Decoder(Callback callback) {
+            this.callback = callback;
+        }
+
+        public void feed(byte[] data, int offset, int len) {
+            if (buffer.length - end < len) {
+                // 先把未解析的数据移到开头，仍不够再扩容
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                if (buffer.length - end < len) {
+                    buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, end + len));
+                }
+            }
+            System.arraycopy(data, offset, buffer, end, len);
+            end += len;
+            parse();
+        }
+
+        public void reset() {
+            start = 0;
+            end = 0;
+        }
+
+        private void parse() {
+            while (end - start >= OVERHEAD) {
+                if ((buffer[start] & 0xFF) != MAGIC) {
+                    start++;
+                    continue;
+                }
+                int type = buffer[start + 1] & 0xFF;
+                if (type < TYPE_START || type > TYPE_ACK
+                        || (buffer[start + 5] & 0xFF) != (crc16(buffer, start + 1, 4) & 0xFF)) {
+                    start++;
+                    continue;
+                }
+                int bodyLen = getShort(buffer, start + 3);
+                int frameLen = OVERHEAD + bodyLen;
+                if (end - start < frameLen) {
+                    break;
+                }
+                int crc = getShort(buffer, start + frameLen - 2);
+                if (crc != crc16(buffer, start + 1, frameLen - 3)) {
+                    start++;
+                    continue;
+                }
+                int frameStart = start;
+                start += frameLen;
+                callback.onFrame(type, buffer[frameStart + 2] & 0xFF, buffer, frameStart + HEADER_SIZE, bodyLen);
+            }
+            if (start == end) {
+                start = 0;
+                end = 0;
+            }
+        }
+    }
+
+}
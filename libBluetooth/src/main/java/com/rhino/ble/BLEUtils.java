@@ -14,9 +14,14 @@ import com.rhino.log.LogUtils;
 
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
 
 /**
  * @author rhino
@@ -29,18 +34,32 @@ public class BLEUtils {
      */
     public static String NAME = "BLE";
     /**
-     * 传统蓝牙之间通信的uuid
+     * 传统蓝牙之间通信的uuid，只在onCreate时读取一次作为默认值
+     *
+     * @deprecated 使用{@link #setClassicUuid(UUID)}
      */
+    @Deprecated
     public static String BLE_CLASSIC_UUID = "00002a05-0000-1000-8000-00805f9b34fb";
     /**
-     * 低功耗蓝牙的特征值uuid，发送
+     * 低功耗蓝牙的特征值uuid，发送，只在onCreate时读取一次作为默认值
+     *
+     * @deprecated 使用{@link #setClientLeUuid(UUID, UUID...)}
      */
+    @Deprecated
     public static String BLE_lE_UUID_SERVICE_EIGENVALUE_SEND = "0000ffe1-0000-1000-8000-00805f9b34fb";
     /**
-     * 低功耗蓝牙的特征值uuid，接收
+     * 低功耗蓝牙的特征值uuid，接收，只在onCreate时读取一次作为默认值
+     *
+     * @deprecated 使用{@link #setClientLeUuid(UUID, UUID...)}
      */
+    @Deprecated
     public static String BLE_LE_UUID_SERVICE_EIGENVALUE_READ = "00002902-0000-1000-8000-00805f9b34fb";
 
+    /**
+     * 通过MAC直接连接时调用方传入的设备类型（是否低功耗），getType()未知时由{@link #isBLE(BluetoothDevice)}使用
+     */
+    private static final Map<String, Boolean> KNOWN_BLE = new HashMap<>();
+
     /**
      * 弱引用的回调
      */
@@ -67,6 +86,10 @@ public class BLEUtils {
      * 客户端
      */
     private BLEClientLe bleClientLe;
+    /**
+     * 低功耗客户端连接池，未创建时为null
+     */
+    private BLEClientLePool bleClientLePool;
 
     /**
      * 监听蓝牙状态改变
@@ -93,6 +116,9 @@ public class BLEUtils {
                 if (bleClientLe != null) {
                     bleClientLe.disconnect();
                 }
+                if (bleClientLePool != null) {
+                    bleClientLePool.disconnectAll();
+                }
                 callBack.get().onBLEEvent(BLEEvent.BLE_CLOSE, "蓝牙已关闭");
             }
         }
@@ -168,6 +194,10 @@ public class BLEUtils {
         if (bleClientLe != null) {
             bleClientLe.onDestroy();
         }
+        if (bleClientLePool != null) {
+            bleClientLePool.onDestroy();
+            bleClientLePool = null;
+        }
         bluetoothClient = null;
     }
 
@@ -298,6 +328,32 @@ public class BLEUtils {
         bleServerClassic.doWrite(msg);
     }
 
+    /**
+     * 服务端-发送数据
+     */
+    public void serverWrite(byte[] data) {
+        serverWrite(data, 0, data.length);
+    }
+
+    /**
+     * 服务端-发送数据
+     */
+    public void serverWrite(byte[] data, int offset, int len) {
+        if (bleServerClassic == null) {
+            return;
+        }
+        bleServerClassic.doWrite(data, offset, len);
+    }
+
+    /**
+     * 服务端-发送数据，发送position到limit之间的数据
+     * 数据异步发送，先复制剩余数据再入队，返回后buffer的position等于limit，可以立即复用
+     */
+    public void serverWrite(ByteBuffer buffer) {
+        byte[] data = copyRemaining(buffer);
+        serverWrite(data, 0, data.length);
+    }
+
     /**
      * 服务端-开启等待连接线程
      */
@@ -348,6 +404,46 @@ public class BLEUtils {
         }
     }
 
+    /**
+     * 客户端-通过MAC直接连接已知设备，不需要先搜索
+     * 未搜索到的设备类型通常未知，需要由调用方传入之前连接成功时保存的类型
+     *
+     * @param ble         是否低功耗蓝牙
+     * @param autoConnect 低功耗蓝牙connectGatt是否使用autoConnect，见{@link BLEClientLe#connect(BluetoothDevice, boolean)}
+     * @return MAC无效或蓝牙未开启时返回false
+     */
+    public boolean clientConnect(String mac, boolean ble, boolean autoConnect) {
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled() || !BluetoothAdapter.checkBluetoothAddress(mac)) {
+            LogUtils.w("无法直接连接：" + mac);
+            return false;
+        }
+        BluetoothDevice bluetoothDevice = bluetoothAdapter.getRemoteDevice(mac);
+        LogUtils.d("直接连接：" + mac + (ble ? "，低功耗" : "，传统"));
+        // getRemoteDevice得到的设备类型未知，记下保存的类型，之后发送时按此区分
+        synchronized (KNOWN_BLE) {
+            KNOWN_BLE.put(bluetoothDevice.getAddress(), ble);
+        }
+        if (ble) {
+            if (bleClientLe == null) {
+                return false;
+            }
+            bleClientLe.connect(bluetoothDevice, autoConnect);
+        } else {
+            if (bleClientClassic == null) {
+                return false;
+            }
+            bleClientClassic.connect(bluetoothDevice);
+        }
+        return true;
+    }
+
+    /**
+     * 客户端-已连接的是否低功耗蓝牙，用于保存设备类型，之后通过MAC直接连接
+     */
+    public boolean isClientLeConnected() {
+        return bleClientLe != null && bleClientLe.getBluetoothDeviceConnected() != null;
+    }
+
     /**
      * 客户端-发送数据
      */
@@ -363,6 +459,292 @@ public class BLEUtils {
         }
     }
 
+    /**
+     * 客户端-发送数据
+     */
+    public void clientWrite(BluetoothDevice bluetoothDevice, byte[] data) {
+        clientWrite(bluetoothDevice, data, 0, data.length);
+    }
+
+    /**
+     * 客户端-发送数据，低功耗蓝牙异步发送，收到WRITE_SUCCESS或WRITE_FAILED之前不要修改data
+     */
+    public void clientWrite(BluetoothDevice bluetoothDevice, byte[] data, int offset, int len) {
+        if (isBLE(bluetoothDevice)) {
+            if (bleClientLe != null) {
+                bleClientLe.write(bluetoothDevice, data, offset, len);
+            }
+        } else {
+            if (bleClientClassic != null) {
+                bleClientClassic.write(bluetoothDevice, data, offset, len);
+            }
+        }
+    }
+
+    /**
+     * 客户端-发送数据，发送position到limit之间的数据
+     * 数据异步发送，先复制剩余数据再入队，返回后buffer的position等于limit，可以立即复用
+     */
+    public void clientWrite(BluetoothDevice bluetoothDevice, ByteBuffer buffer) {
+        byte[] data = copyRemaining(buffer);
+        clientWrite(bluetoothDevice, data, 0, data.length);
+    }
+
+    /**
+     * 客户端-设置合并发送，maxDelay毫秒内连续发送的小消息合并发送，maxDelay小于等于0时关闭
+     */
+    public void setClientCoalesce(long maxDelay, int maxSize) {
+        if (bleClientClassic != null) {
+            bleClientClassic.setCoalesce(maxDelay, maxSize);
+        }
+        if (bleClientLe != null) {
+            bleClientLe.setCoalesce(maxDelay, maxSize);
+        }
+    }
+
+    /**
+     * 设置每个连接的发送队列容量和高低水位，达到高水位时回调NOT_WRITABLE，降到低水位时回调WRITABLE
+     *
+     * @param capacity      容量，字节，小于等于0时不限制
+     * @param highWatermark 高水位，小于等于0时等于容量
+     * @param lowWatermark  低水位，小于0时为高水位的一半
+     * @param policy        队列满时的处理策略
+     */
+    public void setWriteQueueLimit(int capacity, int highWatermark, int lowWatermark, BLEOverflowPolicy policy) {
+        if (bleServerClassic != null) {
+            bleServerClassic.setWriteQueueLimit(capacity, highWatermark, lowWatermark, policy);
+        }
+        if (bleClientClassic != null) {
+            bleClientClassic.setWriteQueueLimit(capacity, highWatermark, lowWatermark, policy);
+        }
+        if (bleClientLe != null) {
+            bleClientLe.setWriteQueueLimit(capacity, highWatermark, lowWatermark, policy);
+        }
+    }
+
+    /**
+     * 低功耗客户端-设置接收分帧，分包到达的数据拼成完整的帧后再回调，null时每个通知回调一次
+     */
+    public void setClientFramer(BLEFramer framer) {
+        if (bleClientLe != null) {
+            bleClientLe.setFramer(framer);
+        }
+    }
+
+    /**
+     * 设置服务端接收管道，设置了解码器时以READ_OBJECT回调解码后的对象
+     */
+    public void setServerReceivePipeline(BLEReceivePipeline receivePipeline) {
+        if (bleServerClassic != null) {
+            bleServerClassic.setReceivePipeline(receivePipeline);
+        }
+    }
+
+    /**
+     * 客户端-设置接收管道，设置了解码器时以READ_OBJECT回调解码后的对象
+     * 管道有状态，经典蓝牙客户端和低功耗客户端需要使用不同的实例
+     */
+    public void setClientReceivePipeline(BLEReceivePipeline classicPipeline, BLEReceivePipeline lePipeline) {
+        if (bleClientClassic != null) {
+            bleClientClassic.setReceivePipeline(classicPipeline);
+        }
+        if (bleClientLe != null) {
+            bleClientLe.setReceivePipeline(lePipeline);
+        }
+    }
+
+    /**
+     * 传统蓝牙-设置服务端和客户端通信的UUID
+     */
+    public void setClassicUuid(UUID uuid) {
+        if (bleServerClassic != null) {
+            bleServerClassic.setUuid(uuid);
+        }
+        if (bleClientClassic != null) {
+            bleClientClassic.setUuid(uuid);
+        }
+    }
+
+    /**
+     * 低功耗客户端-设置通知描述符和读写特征的UUID，读写特征可以设置多个，使用第一个匹配的特征
+     */
+    public void setClientLeUuid(UUID descriptorUuid, UUID... characteristicUuids) {
+        if (bleClientLe != null) {
+            bleClientLe.setDescriptorUuid(descriptorUuid);
+            bleClientLe.setCharacteristicUuids(characteristicUuids);
+        }
+    }
+
+    /**
+     * 客户端-设置连接意外断开后是否自动重连，以及退避参数：初始延迟（毫秒），每次加倍并加随机抖动，
+     * 最大延迟（毫秒），最多重连次数（小于等于0时不限次数）
+     */
+    public void setClientAutoReconnect(boolean enable, long initialDelay, long maxDelay, int maxAttempts) {
+        if (bleClientClassic != null) {
+            bleClientClassic.setReconnectBackoff(initialDelay, maxDelay, maxAttempts);
+            bleClientClassic.setAutoReconnect(enable);
+        }
+        if (bleClientLe != null) {
+            bleClientLe.setReconnectBackoff(initialDelay, maxDelay, maxAttempts);
+            bleClientLe.setAutoReconnect(enable);
+        }
+    }
+
+    /**
+     * 客户端-是否正在自动重连
+     */
+    public boolean isClientReconnecting() {
+        return (bleClientClassic != null && bleClientClassic.isReconnecting())
+                || (bleClientLe != null && bleClientLe.isReconnecting());
+    }
+
+    /**
+     * 客户端-获取自动重连统计
+     *
+     * @param ble 是否为低功耗客户端
+     */
+    public BLEReconnectStats getClientReconnectStats(boolean ble) {
+        if (ble) {
+            return bleClientLe != null ? bleClientLe.getReconnectStats() : null;
+        }
+        return bleClientClassic != null ? bleClientClassic.getReconnectStats() : null;
+    }
+
+    /**
+     * 低功耗客户端-设置是否使用GATT服务缓存，默认使用
+     */
+    public void setClientGattCache(boolean enabled) {
+        if (bleClientLe != null) {
+            bleClientLe.setGattCacheEnabled(enabled);
+        }
+    }
+
+    /**
+     * 低功耗客户端-删除GATT服务缓存，address为null时删除所有设备的缓存
+     */
+    public void clearClientGattCache(String address) {
+        if (bleClientLe != null) {
+            bleClientLe.clearGattCache(address);
+        }
+    }
+
+    /**
+     * 低功耗客户端-设置收到数据的回调Executor，null时使用默认的分发线程
+     */
+    public void setClientReceiveExecutor(Executor executor) {
+        if (bleClientLe != null) {
+            bleClientLe.setReceiveExecutor(executor);
+        }
+    }
+
+    /**
+     * 低功耗客户端-设置批量回调，maxDelay毫秒内或每maxCount包合并成一批以READ_BATCH回调，都小于等于0时关闭
+     */
+    public void setClientReceiveBatch(long maxDelay, int maxCount) {
+        if (bleClientLe != null) {
+            bleClientLe.setReceiveBatch(maxDelay, maxCount);
+        }
+    }
+
+    /**
+     * 低功耗客户端-订阅特征的通知，该特征的数据直接回调handler
+     */
+    public void clientSubscribe(UUID serviceUuid, UUID characteristicUuid, BLENotifyHandler handler) {
+        if (bleClientLe != null) {
+            bleClientLe.subscribe(serviceUuid, characteristicUuid, handler);
+        }
+    }
+
+    /**
+     * 低功耗客户端-取消订阅特征的通知
+     */
+    public void clientUnsubscribe(UUID characteristicUuid) {
+        if (bleClientLe != null) {
+            bleClientLe.unsubscribe(characteristicUuid);
+        }
+    }
+
+    /**
+     * 低功耗客户端-设置是否使用可靠写，每条消息原子提交，单条消息最长512字节
+     */
+    public void setClientReliableWrite(boolean reliableWrite) {
+        if (bleClientLe != null) {
+            bleClientLe.setReliableWrite(reliableWrite);
+        }
+    }
+
+    /**
+     * 设置收到数据时是否以READ_DATA事件回调原始byte[]，默认以READ_SUCCESS回调String
+     */
+    public void setReceiveBytes(boolean receiveBytes) {
+        if (bleServerClassic != null) {
+            bleServerClassic.setReceiveBytes(receiveBytes);
+        }
+        if (bleClientClassic != null) {
+            bleClientClassic.setReceiveBytes(receiveBytes);
+        }
+        if (bleClientLe != null) {
+            bleClientLe.setReceiveBytes(receiveBytes);
+        }
+    }
+
+    /**
+     * 设置经典蓝牙读缓存大小，每次read最多读取的字节数，下次连接时生效
+     */
+    public void setReadBufferSize(int readBufferSize) {
+        if (bleServerClassic != null) {
+            bleServerClassic.setReadBufferSize(readBufferSize);
+        }
+        if (bleClientClassic != null) {
+            bleClientClassic.setReadBufferSize(readBufferSize);
+        }
+    }
+
+    /**
+     * 设置消息压缩，每个连接使用独立的压缩器，双方必须设置相同的压缩参数；之前的压缩器会被释放
+     * 对端未开启压缩时自动原样收发，见{@link BLECompressor}
+     *
+     * @param enable     是否开启
+     * @param threshold  达到该长度才压缩
+     * @param dictionary 预置字典，可为null
+     */
+    public void setCompression(boolean enable, int threshold, byte[] dictionary) {
+        if (bleServerClassic != null) {
+            BLECompressor old = bleServerClassic.getCompressor();
+            bleServerClassic.setCompressor(enable ? createCompressor(threshold, dictionary) : null);
+            releaseCompressor(old);
+        }
+        if (bleClientClassic != null) {
+            BLECompressor old = bleClientClassic.getCompressor();
+            bleClientClassic.setCompressor(enable ? createCompressor(threshold, dictionary) : null);
+            releaseCompressor(old);
+        }
+        if (bleClientLe != null) {
+            BLECompressor old = bleClientLe.getCompressor();
+            bleClientLe.setCompressor(enable ? createCompressor(threshold, dictionary) : null);
+            releaseCompressor(old);
+        }
+    }
+
+    /**
+     * 创建压缩器
+     */
+    private static BLECompressor createCompressor(int threshold, byte[] dictionary) {
+        BLECompressor compressor = new BLECompressor();
+        compressor.setThreshold(threshold);
+        compressor.setDictionary(dictionary);
+        return compressor;
+    }
+
+    /**
+     * 释放被替换的压缩器
+     */
+    private static void releaseCompressor(BLECompressor compressor) {
+        if (compressor != null) {
+            compressor.release();
+        }
+    }
+
     /**
      * 获取正在连接蓝牙
      */
@@ -389,11 +771,70 @@ public class BLEUtils {
         return null;
     }
 
+    /**
+     * 获取传统蓝牙服务端，用于单独配置
+     */
+    public BLEServerClassic getBleServerClassic() {
+        return bleServerClassic;
+    }
+
+    /**
+     * 获取传统蓝牙客户端，用于单独配置
+     */
+    public BLEClientClassic getBleClientClassic() {
+        return bleClientClassic;
+    }
+
+    /**
+     * 创建低功耗客户端连接池，同时连接多个设备；与单个客户端互不影响，已创建时销毁旧的连接池
+     * 在onCreate()之后调用，onDestroy()时一起销毁
+     */
+    public BLEClientLePool createClientLePool(Context context, BLEPoolCallback callback) {
+        if (bleClientLePool != null) {
+            bleClientLePool.onDestroy();
+        }
+        bleClientLePool = new BLEClientLePool(context, bluetoothAdapter, callback);
+        return bleClientLePool;
+    }
+
+    /**
+     * 获取低功耗客户端连接池，未创建时返回null
+     */
+    public BLEClientLePool getClientLePool() {
+        return bleClientLePool;
+    }
+
+    /**
+     * 获取低功耗蓝牙客户端，用于单独配置（如MTU）
+     */
+    public BLEClientLe getBleClientLe() {
+        return bleClientLe;
+    }
+
     /**
      * 判断蓝牙是否ble蓝牙
+     * 未搜索到的设备（如getRemoteDevice(mac)）类型未知，使用通过{@link #clientConnect(String, boolean, boolean)}传入的类型
      */
     public static boolean isBLE(BluetoothDevice bluetoothDevice) {
-        return bluetoothDevice.getType() == BluetoothDevice.DEVICE_TYPE_LE;
+        int type = bluetoothDevice.getType();
+        if (type == BluetoothDevice.DEVICE_TYPE_UNKNOWN) {
+            Boolean ble;
+            synchronized (KNOWN_BLE) {
+                ble = KNOWN_BLE.get(bluetoothDevice.getAddress());
+            }
+            return ble != null && ble;
+        }
+        return type == BluetoothDevice.DEVICE_TYPE_LE;
+    }
+
+    /**
+     * 复制ByteBuffer的剩余数据，position移到limit
+     * 发送队列异步持有数组，不能直接使用底层数组，否则调用方复用buffer时会改掉未发出的数据
+     */
+    private static byte[] copyRemaining(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
     }
 
     /**
@@ -0,0 +1,178 @@
+package com.rhino.ble;
+
+import com.rhino.log.LogUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发送合并，把短时间内连续发送的小消息合并成一次发送
+ * 缓存达到maxSize立即发送，否则最多等待maxDelay毫秒
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLEWriteCoalescer {
+
+    /**
+     * 合并后的数据输出
+     */
+    public interface Sink {
+        /**
+         * data为新分配的数组，接收方可以直接持有
+         */
+        void onFlush(byte[] data, int offset, int len);
+    }
+
+    /**
+     * 合并后的数据输出
+     */
+    private final Sink sink;
+    /**
+     * 延迟发送定时器，共用的守护线程
+     */
+    private final ScheduledExecutorService scheduler = BLEScheduler.get();
+    /**
+     * 合并缓存
+     */
+    private byte[] buffer = new byte[0];
+    /**
+     * 合并缓存中的数据长度
+     */
+    private int size;
+    /**
+     * 最大等待时间，毫秒
+     */
+    private long maxDelay;
+    /**
+     * 缓存达到该长度立即发送
+     */
+    private int maxSize;
+    /**
+     * 延迟发送任务
+     */
+    private ScheduledFuture<?> flushFuture;
+    /**
+     * 输出锁，保证按写入顺序输出；输出时不持有合并缓存的锁，clear等操作不会被阻塞的输出卡住
+     */
+    private final Object flushLock = new Object();
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public BLEWriteCoalescer(Sink sink, long maxDelay, int maxSize) {
+        this.sink = sink;
+        this.maxDelay = maxDelay;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 设置缓存达到该长度立即发送
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 写入数据，合并满时在调用线程中输出，输出阻塞时（如发送队列BLOCK策略）调用线程随之阻塞
+     */
+    public void write(byte[] data, int offset, int len) {
+        synchronized (flushLock) {
+            byte[] previous = null;
+            byte[] ready = null;
+            synchronized (this) {
+                if (size > 0 && size + len > maxSize) {
+                    previous = take();
+                }
+                if (size == 0 && len >= maxSize) {
+                    // 本身已经足够大，不需要合并
+                    ready = Arrays.copyOfRange(data, offset, offset + len);
+                } else {
+                    if (buffer.length < size + len) {
+                        buffer = Arrays.copyOf(buffer, Math.max(maxSize, size + len));
+                    }
+                    System.arraycopy(data, offset, buffer, size, len);
+                    size += len;
+                    if (size >= maxSize) {
+                        ready = take();
+                    } else if (flushFuture == null) {
+                        try {
+                            flushFuture = scheduler.schedule(flushRunnable, maxDelay, TimeUnit.MILLISECONDS);
+                        } catch (Exception e) {
+                            LogUtils.e("合并发送定时失败", e);
+                            ready = take();
+                        }
+                    }
+                }
+            }
+            emit(previous);
+            emit(ready);
+        }
+    }
+
+    /**
+     * 立即发送缓存中的数据
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            byte[] data;
+            synchronized (this) {
+                data = take();
+            }
+            emit(data);
+        }
+    }
+
+    /**
+     * 丢弃缓存中的数据
+     */
+    public synchronized void clear() {
+        cancelFlushFuture();
+        size = 0;
+    }
+
+    /**
+     * 不再使用时调用
+     */
+    public synchronized void release() {
+        clear();
+    }
+
+    /**
+     * 取出缓存中的数据，在锁内调用
+     *
+     * @return 没有数据时返回null
+     */
+    private byte[] take() {
+        cancelFlushFuture();
+        if (size == 0) {
+            return null;
+        }
+        byte[] data = Arrays.copyOf(buffer, size);
+        size = 0;
+        return data;
+    }
+
+    /**
+     * 输出数据，持有flushLock、不持有合并缓存的锁时调用
+     */
+    private void emit(byte[] data) {
+        if (data != null) {
+            sink.onFlush(data, 0, data.length);
+        }
+    }
+
+    private void cancelFlushFuture() {
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+package com.rhino.ble;
+
+import android.os.SystemClock;
+
+/**
+ * 一条消息的发送结果
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public class BLEWriteFuture {
+
+    /**
+     * 优先级：高，如控制命令，按包插队到低优先级消息之前
+     */
+    public static final int PRIORITY_HIGH = 0;
+    /**
+     * 优先级：中
+     */
+    public static final int PRIORITY_NORMAL = 1;
+    /**
+     * 优先级：低，如固件、日志等大数据
+     */
+    public static final int PRIORITY_LOW = 2;
+
+    /**
+     * 发送完成监听
+     */
+    public interface Listener {
+        /**
+         * 发送完成，在蓝牙回调线程或发送线程中调用
+         */
+        void onWriteComplete(BLEWriteFuture future);
+    }
+
+    /**
+     * 待发送数据
+     */
+    final byte[] data;
+    /**
+     * 数据结束位置
+     */
+    final int end;
+    /**
+     * 优先级
+     */
+    final int priority;
+    /**
+     * 下一包的起始位置，只在发送队列锁内访问
+     */
+    int position;
+    /**
+     * 已发出还未回调的包数，只在发送队列锁内访问
+     */
+    int pendingPackets;
+    /**
+     * 是否使用可靠写整条提交
+     */
+    boolean reliable;
+
+    private final int length;
+    private final long queueTime;
+    private long startTime;
+    private long endTime;
+    private boolean done;
+    private boolean success;
+    private String message;
+    private Listener listener;
+
+    BLEWriteFuture(byte[] data, int offset, int len, int priority) {
+        this.data = data;
+        this.position = offset;
+        this.end = offset + len;
+        this.length = len;
+        this.priority = Math.max(PRIORITY_HIGH, Math.min(PRIORITY_LOW, priority));
+        this.queueTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * 创建一个已失败的结果
+     */
+    static BLEWriteFuture failed(int len, int priority, String message) {
+        BLEWriteFuture future = new BLEWriteFuture(null, 0, len, priority);
+        future.complete(false, message);
+        return future;
+    }
+
+    /**
+     * 设置发送完成监听，已完成时立即回调
+     */
+    public void setListener(Listener listener) {
+        boolean notify;
+        synchronized (this) {
+            this.listener = listener;
+            notify = done;
+        }
+        if (notify && listener != null) {
+            listener.onWriteComplete(this);
+        }
+    }
+
+    /**
+     * 等待发送完成
+     *
+     * @return 超时返回false
+     */
+    public synchronized boolean await(long timeoutMillis) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+        while (!done) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * 是否已完成（成功或失败）
+     */
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * 是否发送成功
+     */
+    public synchronized boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * 结果描述
+     */
+    public synchronized String getMessage() {
+        return message;
+    }
+
+    /**
+     * 消息长度
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * 优先级
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * 排队等待时间，毫秒
+     */
+    public synchronized long getQueueMillis() {
+        return (startTime > 0 ? startTime : endTime) - queueTime;
+    }
+
+    /**
+     * 从发出第一包到完成的时间，毫秒，未开始发送返回0
+     */
+    public synchronized long getSendMillis() {
+        return startTime > 0 ? endTime - startTime : 0;
+    }
+
+    /**
+     * 从提交到完成的总时间，毫秒
+     */
+    public synchronized long getTotalMillis() {
+        return endTime - queueTime;
+    }
+
+    /**
+     * 开始发送第一包
+     */
+    synchronized void onStart() {
+        if (startTime == 0) {
+            startTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * 发送完成
+     *
+     * @return 已经完成过返回false
+     */
+    boolean complete(boolean success, String message) {
+        Listener listener;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.done = true;
+            this.success = success;
+            this.message = message;
+            this.endTime = SystemClock.elapsedRealtime();
+            listener = this.listener;
+            notifyAll();
+        }
+        if (listener != null) {
+            listener.onWriteComplete(this);
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "BLEWriteFuture{length=" + length
+                + ", priority=" + priority
+                + ", success=" + success
+                + ", message=" + message
+                + ", queueMillis=" + getQueueMillis()
+                + ", sendMillis=" + getSendMillis()
+                + '}';
+    }
+
+}
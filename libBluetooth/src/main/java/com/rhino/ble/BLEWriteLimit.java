@@ -0,0 +1,131 @@
+package com.rhino.ble;
+
+/**
+ * 发送队列容量和高低水位，只在所属队列的锁内访问
+ * 待发字节数达到高水位时通知不可写，降到低水位时通知可写；
+ * Listener在所属队列的锁内调用，只记录变化，由所属队列释放锁后再回调外部
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLEWriteLimit {
+
+    /**
+     * 可写状态监听
+     */
+    interface Listener {
+        /**
+         * 可写状态改变
+         */
+        void onWritableChanged(boolean writable);
+    }
+
+    private final Listener listener;
+    /**
+     * 队列容量，字节，小于等于0时不限制
+     */
+    private int capacity;
+    /**
+     * 高水位，字节，小于等于0时不通知
+     */
+    private int highWatermark;
+    /**
+     * 低水位，字节
+     */
+    private int lowWatermark;
+    /**
+     * 队列满时的处理策略
+     */
+    private BLEOverflowPolicy policy = BLEOverflowPolicy.BLOCK;
+    /**
+     * 待发字节数
+     */
+    private int bytes;
+    /**
+     * 是否可写
+     */
+    private boolean writable = true;
+    /**
+     * 队列满被丢弃的消息数
+     */
+    private int droppedCount;
+
+    BLEWriteLimit(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 设置容量和水位
+     *
+     * @param highWatermark 小于等于0时等于容量
+     * @param lowWatermark  小于0时为高水位的一半
+     */
+    void set(int capacity, int highWatermark, int lowWatermark, BLEOverflowPolicy policy) {
+        this.capacity = capacity;
+        this.highWatermark = highWatermark > 0 ? highWatermark : capacity;
+        this.lowWatermark = lowWatermark >= 0 ? Math.min(lowWatermark, this.highWatermark) : this.highWatermark / 2;
+        this.policy = policy != null ? policy : BLEOverflowPolicy.BLOCK;
+        check();
+    }
+
+    BLEOverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * 再加入len字节是否超过容量，队列为空时总能加入，避免大于容量的消息永远发不出去
+     */
+    boolean isFull(int len) {
+        return capacity > 0 && bytes > 0 && bytes + len > capacity;
+    }
+
+    /**
+     * 加入待发数据
+     */
+    void add(int len) {
+        bytes += len;
+        check();
+    }
+
+    /**
+     * 待发数据已发出或被移除
+     */
+    void remove(int len) {
+        bytes = Math.max(0, bytes - len);
+        check();
+    }
+
+    /**
+     * 清空
+     */
+    void reset() {
+        bytes = 0;
+        check();
+    }
+
+    /**
+     * 记录一次丢弃
+     */
+    void onDropped() {
+        droppedCount++;
+    }
+
+    int getBytes() {
+        return bytes;
+    }
+
+    int getDroppedCount() {
+        return droppedCount;
+    }
+
+    private void check() {
+        if (writable && highWatermark > 0 && bytes >= highWatermark) {
+            writable = false;
+            listener.onWritableChanged(false);
+        } else if (!writable && (highWatermark <= 0 || bytes <= lowWatermark)) {
+            writable = true;
+            listener.onWritableChanged(true);
+        }
+    }
+
+}
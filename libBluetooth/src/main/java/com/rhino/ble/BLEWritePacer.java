@@ -0,0 +1,174 @@
+package com.rhino.ble;
+
+/**
+ * 自适应发送节奏，每个连接一个
+ * 根据发送回调的往返时间和失败情况调整（AIMD，加性增、乘性减）：
+ * 每个成功回调在途窗口增加1/窗口、包间隔减1毫秒；失败、超时或队列满时窗口减半、包间隔加倍。
+ * 有响应写的窗口固定为1，只受包间隔影响
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLEWritePacer {
+
+    /**
+     * 最大包间隔，毫秒
+     */
+    private static final long MAX_GAP_MILLIS = 200;
+    /**
+     * 往返时间平滑系数（1/8），与TCP一致
+     */
+    private static final int RTT_SHIFT = 3;
+
+    /**
+     * 最大在途窗口
+     */
+    private int maxWindow;
+    /**
+     * 当前在途窗口
+     */
+    private float window;
+    /**
+     * 包间隔，毫秒
+     */
+    private long gapMillis;
+    /**
+     * 平滑往返时间，纳秒
+     */
+    private long srttNanos;
+    /**
+     * 在途包的发出时间，环形队列
+     */
+    private long[] sentTimes = new long[8];
+    private int sentHead;
+    private int sentSize;
+    /**
+     * 统计
+     */
+    private long ackCount;
+    private long failCount;
+
+    BLEWritePacer(int maxWindow) {
+        this.maxWindow = Math.max(1, maxWindow);
+        reset();
+    }
+
+    /**
+     * 设置最大在途窗口
+     */
+    public void setMaxWindow(int maxWindow) {
+        this.maxWindow = Math.max(1, maxWindow);
+        window = Math.min(window, this.maxWindow);
+    }
+
+    /**
+     * 连接断开后重新开始
+     */
+    public void reset() {
+        window = Math.min(2, maxWindow);
+        gapMillis = 0;
+        srttNanos = 0;
+        sentHead = 0;
+        sentSize = 0;
+        ackCount = 0;
+        failCount = 0;
+    }
+
+    /**
+     * 当前允许在途的包数
+     */
+    public int getWindow() {
+        return (int) window;
+    }
+
+    /**
+     * 当前包间隔，毫秒
+     */
+    public long getGapMillis() {
+        return gapMillis;
+    }
+
+    /**
+     * 平滑往返时间，毫秒
+     */
+    public long getRttMillis() {
+        return srttNanos / 1000000;
+    }
+
+    /**
+     * GATT忙时第retry次重试前的等待时间，毫秒
+     */
+    public long getRetryDelayMillis(int retry) {
+        return retry * Math.max(5, getRttMillis());
+    }
+
+    /**
+     * 发出一包
+     */
+    public void onSent(long nowNanos) {
+        if (sentSize == sentTimes.length) {
+            long[] times = new long[sentTimes.length * 2];
+            for (int i = 0; i < sentSize; i++) {
+                times[i] = sentTimes[(sentHead + i) % sentTimes.length];
+            }
+            sentTimes = times;
+            sentHead = 0;
+        }
+        sentTimes[(sentHead + sentSize) % sentTimes.length] = nowNanos;
+        sentSize++;
+    }
+
+    /**
+     * 收到一包的发送回调
+     */
+    public void onAck(long nowNanos, boolean success) {
+        if (sentSize > 0) {
+            long rtt = nowNanos - sentTimes[sentHead];
+            sentHead = (sentHead + 1) % sentTimes.length;
+            sentSize--;
+            srttNanos = srttNanos == 0 ? rtt : srttNanos + ((rtt - srttNanos) >> RTT_SHIFT);
+        }
+        if (!success) {
+            onCongestion();
+            return;
+        }
+        ackCount++;
+        window = Math.min(maxWindow, window + 1f / window);
+        if (gapMillis > 0) {
+            gapMillis--;
+        }
+    }
+
+    /**
+     * GATT忙或控制器队列已满
+     */
+    public void onBusy() {
+        onCongestion();
+    }
+
+    /**
+     * 等待回调超时，在途包全部作废
+     */
+    public void onTimeout() {
+        sentHead = 0;
+        sentSize = 0;
+        onCongestion();
+    }
+
+    private void onCongestion() {
+        failCount++;
+        window = Math.max(1, window / 2);
+        gapMillis = Math.min(MAX_GAP_MILLIS, Math.max(1, gapMillis * 2));
+    }
+
+    @Override
+    public String toString() {
+        return "BLEWritePacer{window=" + getWindow()
+                + ", gapMillis=" + gapMillis
+                + ", rttMillis=" + getRttMillis()
+                + ", ackCount=" + ackCount
+                + ", failCount=" + failCount
+                + '}';
+    }
+
+}
@@ -0,0 +1,706 @@
+package com.rhino.ble;
+
+import android.bluetooth.BluetoothGatt;
+
+import com.rhino.log.LogUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 低功耗蓝牙发送队列
+ * 按优先级逐包发送，高优先级消息在包与包之间插队到低优先级消息之前；
+ * 有响应写每次只有一包在途，无响应写最多writeCredits包在途，由onCharacteristicWrite回调归还额度；
+ * 实际在途窗口和包间隔由{@link BLEWritePacer}根据回调往返时间和失败情况自适应调整；
+ * 可靠写模式下每条消息不分包，整条通过一次有响应的writeCharacteristic发送：
+ * 超过MTU - 3字节时协议栈自动按偏移发送多个Prepare Write，最后一个Execute Write统一提交，
+ * 中途失败时协议栈取消对端暂存的数据，对端不会收到残缺的消息，失败后整条重发；
+ * 属性值最长512字节，可靠写单条消息不能超过{@link #MAX_RELIABLE_LENGTH}；
+ * 待发字节数受{@link BLEWriteLimit}限制，队列满时按{@link BLEOverflowPolicy}处理
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+class BLEWriteQueue {
+
+    /**
+     * 发送目标
+     */
+    interface Target {
+        /**
+         * 是否可以发送
+         */
+        boolean isWritable();
+
+        /**
+         * 每包最大长度
+         */
+        int getPacketSize();
+
+        /**
+         * 是否支持无响应写
+         */
+        boolean supportsNoResponse();
+
+        /**
+         * 发送一包，GATT正忙或控制器队列已满返回false
+         */
+        boolean writePacket(byte[] packet, boolean noResponse);
+
+        /**
+         * 一条消息发送完成
+         */
+        void onWriteComplete(BLEWriteFuture future);
+
+        /**
+         * 进入或退出大数据发送模式
+         */
+        void onBulkModeChanged(boolean bulk);
+
+        /**
+         * 待发数据达到高水位或降到低水位
+         */
+        void onWritableChanged(boolean writable);
+    }
+
+    /**
+     * GATT忙时每包的最大重试次数
+     */
+    private static final int WRITE_RETRY_COUNT = 3;
+    /**
+     * 可靠写单条消息的最大长度，即ATT属性值的最大长度
+     */
+    public static final int MAX_RELIABLE_LENGTH = 512;
+
+    /**
+     * 可靠写阶段：空闲
+     */
+    private static final int RELIABLE_IDLE = 0;
+    /**
+     * 可靠写阶段：等待整条消息的写入回调（长写时为Execute Write完成）
+     */
+    private static final int RELIABLE_WRITE = 1;
+
+    /**
+     * 发送目标
+     */
+    private final Target target;
+    /**
+     * 按优先级排队的消息
+     */
+    private final ArrayDeque<BLEWriteFuture>[] queues;
+    /**
+     * 已发出还未回调的包，按发出顺序记录所属消息
+     */
+    private final ArrayDeque<BLEWriteFuture> inFlight = new ArrayDeque<>();
+    /**
+     * 分包器，只在发送线程中使用
+     */
+    private final BLEChunker chunker = new BLEChunker();
+    /**
+     * 自适应发送节奏
+     */
+    private final BLEWritePacer pacer;
+    /**
+     * 容量和水位
+     */
+    private final BLEWriteLimit limit;
+    /**
+     * 可写状态和大数据发送模式的变化，在锁内记录，释放锁后回调
+     */
+    private final BLECallbackQueue callbacks = new BLECallbackQueue();
+    /**
+     * 发送线程
+     */
+    private WriteThread writeThread;
+    /**
+     * 上一包的发出时间，纳秒
+     */
+    private long lastSentNanos;
+    /**
+     * 待发数据达到该长度时进入大数据发送模式，小于等于0时不进入
+     */
+    private int bulkThreshold = 4096;
+    /**
+     * 是否处于大数据发送模式
+     */
+    private boolean bulk;
+
+    /**
+     * 每包等待发送回调的超时时间，毫秒
+     */
+    private long writeTimeout = 2000;
+    /**
+     * 是否使用无响应写
+     */
+    private boolean writeNoResponse = false;
+    /**
+     * 无响应写时允许在途的最大包数
+     */
+    private int writeCredits = 8;
+    /**
+     * 是否使用可靠写
+     */
+    private boolean reliableWrite = false;
+    /**
+     * 当前可靠写阶段
+     */
+    private int reliableStage = RELIABLE_IDLE;
+    /**
+     * 当前可靠写阶段的回调状态，null表示还未回调
+     */
+    private Integer reliableStatus;
+    /**
+     * 是否暂停发送新的包，把GATT让给描述符写入
+     */
+    private boolean paused;
+
+    @SuppressWarnings("unchecked")
+    BLEWriteQueue(Target target) {
+        this.target = target;
+        this.pacer = new BLEWritePacer(writeCredits);
+        this.limit = new BLEWriteLimit(new BLEWriteLimit.Listener() {
+            @Override
+            public void onWritableChanged(final boolean writable) {
+                callbacks.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        BLEWriteQueue.this.target.onWritableChanged(writable);
+                    }
+                });
+            }
+        });
+        this.queues = new ArrayDeque[BLEWriteFuture.PRIORITY_LOW + 1];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    public synchronized void setWriteTimeout(long writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+    public synchronized void setWriteNoResponse(boolean writeNoResponse) {
+        this.writeNoResponse = writeNoResponse;
+    }
+
+    public synchronized void setWriteCredits(int writeCredits) {
+        this.writeCredits = writeCredits;
+        pacer.setMaxWindow(writeCredits);
+    }
+
+    public synchronized void setReliableWrite(boolean reliableWrite) {
+        this.reliableWrite = reliableWrite;
+    }
+
+    /**
+     * 设置队列容量和高低水位
+     */
+    public void setLimit(int capacity, int highWatermark, int lowWatermark, BLEOverflowPolicy policy) {
+        synchronized (this) {
+            limit.set(capacity, highWatermark, lowWatermark, policy);
+            notifyAll();
+        }
+        callbacks.drain();
+    }
+
+    /**
+     * 暂停发送新的包，已在途的包和进行中的可靠写照常完成，用于把GATT让给描述符写入等其它操作
+     *
+     * @return GATT是否已空闲（没有在途的包和进行中的可靠写），空闲时可以立即发起其它GATT操作
+     */
+    public synchronized boolean pause() {
+        paused = true;
+        return inFlight.isEmpty() && reliableStage == RELIABLE_IDLE;
+    }
+
+    /**
+     * 恢复发送
+     */
+    public synchronized void resume() {
+        if (paused) {
+            paused = false;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 待发字节数
+     */
+    public synchronized int getQueuedBytes() {
+        return limit.getBytes();
+    }
+
+    /**
+     * 队列满被丢弃的消息数
+     */
+    public synchronized int getDroppedCount() {
+        return limit.getDroppedCount();
+    }
+
+    public synchronized void setBulkThreshold(int bulkThreshold) {
+        this.bulkThreshold = bulkThreshold;
+    }
+
+    /**
+     * 当前发送节奏
+     */
+    public synchronized String getPacerStats() {
+        return pacer.toString();
+    }
+
+    /**
+     * 当前平滑往返时间，毫秒
+     */
+    public synchronized long getRttMillis() {
+        return pacer.getRttMillis();
+    }
+
+    /**
+     * 消息入队，队列满时按{@link BLEOverflowPolicy}处理，BLOCK策略会阻塞调用线程
+     */
+    public BLEWriteFuture offer(byte[] data, int offset, int len, int priority) {
+        BLEWriteFuture future = new BLEWriteFuture(data, offset, len, priority);
+        if (len <= 0) {
+            future.complete(true, "发送数据成功");
+            return future;
+        }
+        synchronized (this) {
+            future.reliable = reliableWrite;
+        }
+        if (future.reliable && len > MAX_RELIABLE_LENGTH) {
+            complete(future, false, "可靠写单条消息不能超过" + MAX_RELIABLE_LENGTH + "字节");
+            return future;
+        }
+        List<BLEWriteFuture> dropped = new ArrayList<>();
+        BLEOverflowPolicy rejected = null;
+        synchronized (this) {
+            while (limit.isFull(len)) {
+                BLEOverflowPolicy policy = limit.getPolicy();
+                if (policy == BLEOverflowPolicy.BLOCK) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        rejected = BLEOverflowPolicy.FAIL;
+                        break;
+                    }
+                } else if (policy == BLEOverflowPolicy.DROP_OLDEST) {
+                    BLEWriteFuture oldest = pollOldest();
+                    if (oldest == null) {
+                        // 剩下的都已开始发送，只能超出容量
+                        break;
+                    }
+                    limit.onDropped();
+                    dropped.add(oldest);
+                } else {
+                    if (policy == BLEOverflowPolicy.DROP_NEWEST) {
+                        limit.onDropped();
+                    }
+                    rejected = policy;
+                    break;
+                }
+            }
+            if (rejected == null) {
+                enqueue(future);
+            }
+        }
+        callbacks.drain();
+        for (BLEWriteFuture oldest : dropped) {
+            oldest.complete(false, "发送队列已满，已丢弃");
+        }
+        if (rejected == BLEOverflowPolicy.FAIL) {
+            complete(future, false, "发送队列已满");
+        } else if (rejected != null) {
+            future.complete(false, "发送队列已满，已丢弃");
+        }
+        return future;
+    }
+
+    /**
+     * 加入队列，在锁内调用
+     */
+    private void enqueue(BLEWriteFuture future) {
+        queues[future.priority].add(future);
+        limit.add(future.end - future.position);
+        if (!bulk && bulkThreshold > 0 && limit.getBytes() >= bulkThreshold) {
+            LogUtils.d("进入大数据发送模式");
+            bulk = true;
+            postBulkModeChanged(true);
+        }
+        if (writeThread == null) {
+            writeThread = new WriteThread();
+            writeThread.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * 移出一条最早的还未开始发送的消息，优先丢弃低优先级，在锁内调用
+     */
+    private BLEWriteFuture pollOldest() {
+        for (int i = queues.length - 1; i >= 0; i--) {
+            for (BLEWriteFuture future : queues[i]) {
+                if (future.end - future.position == future.getLength() && !inFlight.contains(future)) {
+                    removeQueued(future);
+                    return future;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从队列中移除，归还未发出的字节数，在锁内调用
+     */
+    private void removeQueued(BLEWriteFuture future) {
+        if (queues[future.priority].remove(future)) {
+            limit.remove(future.end - future.position);
+            // 唤醒等待队列空间的调用线程
+            notifyAll();
+        }
+    }
+
+    /**
+     * onCharacteristicWrite回调
+     */
+    public void onPacketWritten(int status) {
+        BLEWriteFuture done = null;
+        boolean success = false;
+        synchronized (this) {
+            if (reliableStage == RELIABLE_WRITE) {
+                reliableStatus = status;
+                notifyAll();
+                return;
+            }
+            BLEWriteFuture future = inFlight.poll();
+            if (future == null) {
+                return;
+            }
+            future.pendingPackets--;
+            pacer.onAck(System.nanoTime(), status == BluetoothGatt.GATT_SUCCESS);
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                LogUtils.w("发送回调失败: " + status);
+                removeQueued(future);
+                done = future;
+            } else if (future.position == future.end && future.pendingPackets == 0) {
+                done = future;
+                success = true;
+            }
+            checkBulkExit();
+            notifyAll();
+        }
+        callbacks.drain();
+        if (done != null) {
+            complete(done, success, success ? "发送数据成功" : "发送数据失败：" + status);
+        }
+    }
+
+    /**
+     * 发送队列清空时退出大数据发送模式
+     */
+    private void checkBulkExit() {
+        if (bulk && inFlight.isEmpty() && peek() == null) {
+            LogUtils.d("发送队列已清空，退出大数据发送模式");
+            bulk = false;
+            postBulkModeChanged(false);
+        }
+    }
+
+    /**
+     * 记录大数据发送模式的变化，释放锁后回调，在锁内调用
+     */
+    private void postBulkModeChanged(final boolean bulk) {
+        callbacks.post(new Runnable() {
+            @Override
+            public void run() {
+                target.onBulkModeChanged(bulk);
+            }
+        });
+    }
+
+    /**
+     * 清空队列，所有未完成的消息回调失败
+     */
+    public void clear(String message) {
+        List<BLEWriteFuture> failed = new ArrayList<>();
+        synchronized (this) {
+            for (ArrayDeque<BLEWriteFuture> queue : queues) {
+                failed.addAll(queue);
+                queue.clear();
+            }
+            failed.addAll(inFlight);
+            inFlight.clear();
+            pacer.reset();
+            bulk = false;
+            reliableStatus = null;
+            limit.reset();
+            notifyAll();
+        }
+        callbacks.drain();
+        for (BLEWriteFuture future : failed) {
+            complete(future, false, message);
+        }
+    }
+
+    /**
+     * 不再使用时调用
+     */
+    public void release() {
+        synchronized (this) {
+            if (writeThread != null) {
+                writeThread.interrupt();
+                writeThread = null;
+            }
+        }
+        clear("发送队列已关闭");
+    }
+
+    /**
+     * 回调消息发送结果，每条消息只回调一次
+     */
+    private void complete(BLEWriteFuture future, boolean success, String message) {
+        if (future.complete(success, message)) {
+            target.onWriteComplete(future);
+        }
+    }
+
+    /**
+     * 优先级最高的待发消息
+     */
+    private BLEWriteFuture peek() {
+        for (ArrayDeque<BLEWriteFuture> queue : queues) {
+            BLEWriteFuture future = queue.peek();
+            if (future != null) {
+                return future;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * 等待在途包的回调归还额度
+     *
+     * @return 超时返回false
+     */
+    private boolean awaitCallback(int window) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + writeTimeout;
+        while (inFlight.size() >= window) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * 在途包回调超时，在途的消息全部失败
+     */
+    private List<BLEWriteFuture> failInFlight() {
+        List<BLEWriteFuture> failed = new ArrayList<>();
+        for (BLEWriteFuture future : inFlight) {
+            if (!failed.contains(future)) {
+                failed.add(future);
+                removeQueued(future);
+            }
+        }
+        inFlight.clear();
+        pacer.onTimeout();
+        return failed;
+    }
+
+    /**
+     * 发送线程
+     */
+    private class WriteThread extends Thread {
+
+        private int retry;
+        /**
+         * 可靠写成功的消息，在锁外回调
+         */
+        private BLEWriteFuture succeeded;
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    List<BLEWriteFuture> failed = writeNext();
+                    callbacks.drain();
+                    if (succeeded != null) {
+                        complete(succeeded, true, "发送数据成功");
+                        succeeded = null;
+                    }
+                    if (failed != null) {
+                        for (BLEWriteFuture future : failed) {
+                            complete(future, false, "发送数据失败");
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                LogUtils.d("发送线程结束");
+            }
+        }
+
+        /**
+         * 发送下一包
+         *
+         * @return 失败的消息
+         */
+        private List<BLEWriteFuture> writeNext() throws InterruptedException {
+            synchronized (BLEWriteQueue.this) {
+                BLEWriteFuture future = peek();
+                if (future == null || paused) {
+                    BLEWriteQueue.this.wait();
+                    return null;
+                }
+                if (future.reliable) {
+                    return writeReliable(future);
+                }
+                boolean noResponse = writeNoResponse && target.supportsNoResponse();
+                // 有响应写每次只能有一包在途，无响应写允许多包排队到控制器
+                int window = noResponse ? pacer.getWindow() : 1;
+                if (inFlight.size() >= window) {
+                    if (!awaitCallback(window)) {
+                        LogUtils.e("等待发送回调超时");
+                        return failInFlight();
+                    }
+                    return null;
+                }
+                if (!target.isWritable()) {
+                    LogUtils.e("未连接，无法发送数据");
+                    removeQueued(future);
+                    List<BLEWriteFuture> failed = new ArrayList<>();
+                    failed.add(future);
+                    return failed;
+                }
+                long gapNanos = pacer.getGapMillis() * 1000000L - (System.nanoTime() - lastSentNanos);
+                if (gapNanos > 0) {
+                    BLEWriteQueue.this.wait(Math.max(1, gapNanos / 1000000L));
+                    return null;
+                }
+                future.onStart();
+                int len = Math.min(target.getPacketSize(), future.end - future.position);
+                byte[] packet = chunker.chunk(future.data, future.position, len);
+                // 先记录在途，避免回调先于记录到达
+                inFlight.add(future);
+                if (target.writePacket(packet, noResponse)) {
+                    retry = 0;
+                    lastSentNanos = System.nanoTime();
+                    pacer.onSent(lastSentNanos);
+                    future.position += len;
+                    future.pendingPackets++;
+                    limit.remove(len);
+                    BLEWriteQueue.this.notifyAll();
+                    if (future.position == future.end) {
+                        // 已全部发出，等待回调
+                        removeQueued(future);
+                    }
+                    return null;
+                }
+                inFlight.removeLast();
+                // 返回false说明GATT正忙或控制器队列已满
+                pacer.onBusy();
+                if (!inFlight.isEmpty()) {
+                    // 还有包在途，等下一个回调后再试
+                    if (!awaitCallback(inFlight.size())) {
+                        LogUtils.e("等待发送回调超时");
+                        return failInFlight();
+                    }
+                    return null;
+                }
+                // 其它GATT操作占用中，短暂等待后重试
+                if (++retry > WRITE_RETRY_COUNT) {
+                    LogUtils.e("无法发送数据");
+                    retry = 0;
+                    removeQueued(future);
+                    List<BLEWriteFuture> failed = new ArrayList<>();
+                    failed.add(future);
+                    return failed;
+                }
+                LogUtils.w("发送失败，重新尝试发送：" + retry);
+                BLEWriteQueue.this.wait(pacer.getRetryDelayMillis(retry));
+                return null;
+            }
+        }
+
+        /**
+         * 可靠写发送一整条消息，在锁内调用，失败后整条重试
+         *
+         * @return 失败的消息
+         */
+        private List<BLEWriteFuture> writeReliable(BLEWriteFuture future) throws InterruptedException {
+            if (!inFlight.isEmpty()) {
+                // 等待之前的普通写完成
+                if (!awaitCallback(1)) {
+                    LogUtils.e("等待发送回调超时");
+                    return failInFlight();
+                }
+                return null;
+            }
+            List<BLEWriteFuture> failed = new ArrayList<>();
+            if (!target.isWritable()) {
+                LogUtils.e("未连接，无法发送数据");
+                removeQueued(future);
+                failed.add(future);
+                return failed;
+            }
+            future.onStart();
+            int status = writeWhole(future);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                retry = 0;
+                removeQueued(future);
+                checkBulkExit();
+                BLEWriteQueue.this.notifyAll();
+                succeeded = future;
+                return null;
+            }
+            if (queues[future.priority].peek() != future) {
+                // 已被清空
+                return null;
+            }
+            if (++retry > WRITE_RETRY_COUNT) {
+                LogUtils.e("可靠写失败：" + status);
+                retry = 0;
+                removeQueued(future);
+                checkBulkExit();
+                failed.add(future);
+                return failed;
+            }
+            LogUtils.w("可靠写失败，整条重新发送：" + retry);
+            BLEWriteQueue.this.wait(pacer.getRetryDelayMillis(retry));
+            return null;
+        }
+
+        /**
+         * 整条消息通过一次有响应写发送并等待回调，超过一包时由协议栈按Prepare Write + Execute Write长写
+         *
+         * @return 回调状态
+         */
+        private int writeWhole(BLEWriteFuture future) throws InterruptedException {
+            reliableStage = RELIABLE_WRITE;
+            reliableStatus = null;
+            inFlight.add(future);
+            boolean started = target.writePacket(Arrays.copyOfRange(future.data, future.position, future.end), false);
+            if (started) {
+                long deadline = System.currentTimeMillis() + writeTimeout;
+                while (reliableStatus == null) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        LogUtils.e("等待可靠写回调超时");
+                        break;
+                    }
+                    BLEWriteQueue.this.wait(remaining);
+                }
+            }
+            inFlight.remove(future);
+            reliableStage = RELIABLE_IDLE;
+            return reliableStatus != null ? reliableStatus : BluetoothGatt.GATT_FAILURE;
+        }
+    }
+
+}
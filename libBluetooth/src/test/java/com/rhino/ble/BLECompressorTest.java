@@ -0,0 +1,179 @@
+package com.rhino.ble;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BLECompressor编解码测试，包括不同包长下压缩后的包数
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public class BLECompressorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] SAMPLE = ("{\"type\":\"status\",\"device\":\"AA:BB:CC:DD:EE:FF\",\"battery\":87,"
+            + "\"temperature\":36.5,\"humidity\":45,\"timestamp\":1791302400000,\"sensors\":["
+            + "{\"id\":1,\"name\":\"heart_rate\",\"value\":72,\"unit\":\"bpm\"},"
+            + "{\"id\":2,\"name\":\"spo2\",\"value\":98,\"unit\":\"%\"},"
+            + "{\"id\":3,\"name\":\"steps\",\"value\":10240,\"unit\":\"count\"}]}").getBytes(UTF_8);
+
+    private static final byte[] DICTIONARY = ("\"type\":\"status\",\"device\":\"battery\":\"temperature\":"
+            + "\"humidity\":\"timestamp\":\"sensors\":[{\"id\":\"name\":\"value\":\"unit\":").getBytes(UTF_8);
+
+    @Test
+    public void roundTripSplitInput() {
+        BLECompressor sender = new BLECompressor();
+        BLECompressor receiver = new BLECompressor();
+        byte[] small = "ok".getBytes(UTF_8);
+        byte[] first = sender.encode(SAMPLE, 0, SAMPLE.length);
+        byte[] second = sender.encode(small, 0, small.length);
+        assertTrue(first.length < SAMPLE.length);
+
+        byte[] stream = concat(first, second);
+        Collector collector = new Collector();
+        // 按20字节拆分输入，模拟MTU 23的通知
+        for (int i = 0; i < stream.length; i += 20) {
+            receiver.decode(stream, i, Math.min(20, stream.length - i), collector);
+        }
+        assertEquals(2, collector.messages.size());
+        assertArrayEquals(SAMPLE, collector.messages.get(0));
+        assertArrayEquals(small, collector.messages.get(1));
+        sender.release();
+        receiver.release();
+    }
+
+    @Test
+    public void roundTripWithDictionary() {
+        BLECompressor sender = new BLECompressor();
+        BLECompressor receiver = new BLECompressor();
+        sender.setDictionary(DICTIONARY);
+        receiver.setDictionary(DICTIONARY);
+        byte[] encoded = sender.encode(SAMPLE, 0, SAMPLE.length);
+        assertEquals(BLECompressor.ENVELOPE_MARK | BLECompressor.FLAG_DEFLATE_DICTIONARY, encoded[0] & 0xFF);
+
+        Collector collector = new Collector();
+        receiver.decode(encoded, 0, encoded.length, collector);
+        assertEquals(1, collector.messages.size());
+        assertArrayEquals(SAMPLE, collector.messages.get(0));
+    }
+
+    @Test
+    public void rejectOverflowingLength() {
+        BLECompressor receiver = new BLECompressor();
+        Collector collector = new Collector();
+        // 长度varint为0x7FFFFFFFF，超出int范围
+        byte[] overflow = {(byte) 0xF8, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F, 1, 2, 3};
+        receiver.decode(overflow, 0, overflow.length, collector);
+        // 超过5字节的varint
+        byte[] overlong = {(byte) 0xF8, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x00};
+        receiver.decode(overlong, 0, overlong.length, collector);
+        assertEquals(0, collector.messages.size());
+
+        // 丢弃错误数据后可以继续解码
+        byte[] encoded = new BLECompressor().encode(SAMPLE, 0, SAMPLE.length);
+        receiver.decode(encoded, 0, encoded.length, collector);
+        assertEquals(1, collector.messages.size());
+        assertArrayEquals(SAMPLE, collector.messages.get(0));
+    }
+
+    @Test
+    public void passThroughRawPeer() {
+        BLECompressor compressor = new BLECompressor();
+        Collector collector = new Collector();
+        byte[] raw = "{\"type\":\"ping\"}".getBytes(UTF_8);
+        compressor.decode(raw, 0, raw.length, collector);
+        assertEquals(1, collector.messages.size());
+        assertArrayEquals(raw, collector.messages.get(0));
+        assertTrue(compressor.isPeerRaw());
+        assertArrayEquals(SAMPLE, compressor.encode(SAMPLE, 0, SAMPLE.length));
+
+        // 0xFB-0xFF不是有效的信封，按原始数据回调
+        byte[] binary = {(byte) 0xFF, 0x01, 0x02};
+        compressor.decode(binary, 0, binary.length, collector);
+        assertEquals(2, collector.messages.size());
+        assertArrayEquals(binary, collector.messages.get(1));
+
+        // 对端发来信封后恢复压缩
+        byte[] encoded = new BLECompressor().encode(SAMPLE, 0, SAMPLE.length);
+        compressor.decode(encoded, 0, encoded.length, collector);
+        assertEquals(3, collector.messages.size());
+        assertArrayEquals(SAMPLE, collector.messages.get(2));
+        assertFalse(compressor.isPeerRaw());
+        assertTrue(compressor.encode(SAMPLE, 0, SAMPLE.length).length < SAMPLE.length);
+
+        compressor.decode(raw, 0, raw.length, collector);
+        assertTrue(compressor.isPeerRaw());
+        compressor.reset();
+        assertFalse(compressor.isPeerRaw());
+    }
+
+    @Test
+    public void encodeAfterRelease() {
+        BLECompressor sender = new BLECompressor();
+        sender.release();
+        byte[] encoded = sender.encode(SAMPLE, 0, SAMPLE.length);
+        assertEquals(BLECompressor.ENVELOPE_MARK | BLECompressor.FLAG_RAW, encoded[0] & 0xFF);
+
+        Collector collector = new Collector();
+        new BLECompressor().decode(encoded, 0, encoded.length, collector);
+        assertArrayEquals(SAMPLE, collector.messages.get(0));
+    }
+
+    @Test
+    public void compressionSavesPackets() {
+        for (int level : new int[]{Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION}) {
+            BLECompressor plain = new BLECompressor(level);
+            BLECompressor withDictionary = new BLECompressor(level);
+            withDictionary.setDictionary(DICTIONARY);
+            byte[] encoded = plain.encode(SAMPLE, 0, SAMPLE.length);
+            byte[] encodedWithDictionary = withDictionary.encode(SAMPLE, 0, SAMPLE.length);
+            // 字典对短JSON消息有明显收益
+            assertTrue(encodedWithDictionary.length < encoded.length);
+            for (int packetSize : new int[]{20, 244}) {
+                assertTrue(packets(encoded, packetSize) <= packets(SAMPLE, packetSize));
+            }
+            assertTrue(packets(encodedWithDictionary, 20) < packets(SAMPLE, 20));
+
+            Collector collector = new Collector();
+            plain.decode(encoded, 0, encoded.length, collector);
+            withDictionary.decode(encodedWithDictionary, 0, encodedWithDictionary.length, collector);
+            assertEquals(2, collector.messages.size());
+            assertArrayEquals(SAMPLE, collector.messages.get(0));
+            assertArrayEquals(SAMPLE, collector.messages.get(1));
+            plain.release();
+            withDictionary.release();
+        }
+    }
+
+    private static int packets(byte[] data, int packetSize) {
+        return (data.length + packetSize - 1) / packetSize;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    private static class Collector implements BLECompressor.Callback {
+        final List<byte[]> messages = new ArrayList<>();
+
+        @Override
+        public void onMessage(byte[] data, int offset, int len) {
+            messages.add(Arrays.copyOfRange(data, offset, offset + len));
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.rhino.ble;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BLETransfer在内存中两端直接对接的测试，Transport同步调用对端的onReceive
+ *
+ * @author rhino
+ * @since Create on 2026/10/18.
+ **/
+public class BLETransferTest {
+
+    private Link senderLink;
+    private Link receiverLink;
+    private Recorder senderRecorder;
+    private Recorder receiverRecorder;
+    private BLETransfer sender;
+    private BLETransfer receiver;
+
+    @Before
+    public void setUp() {
+        senderLink = new Link();
+        receiverLink = new Link();
+        senderRecorder = new Recorder();
+        receiverRecorder = new Recorder();
+        sender = new BLETransfer(senderLink, senderRecorder);
+        receiver = new BLETransfer(receiverLink, receiverRecorder);
+        senderLink.peer = receiver;
+        receiverLink.peer = sender;
+        sender.setBlockSize(100);
+        sender.setRetransmit(50, 5);
+    }
+
+    @After
+    public void tearDown() {
+        sender.release();
+        receiver.release();
+    }
+
+    @Test
+    public void sendOverSynchronousLoopback() {
+        byte[] data = randomBytes(4096, 1);
+        sender.send(1, data);
+
+        assertEquals(1, senderRecorder.completed.size());
+        assertEquals(0, senderRecorder.failed.size());
+        assertEquals(1, receiverRecorder.received.size());
+        assertArrayEquals(data, receiverRecorder.received.get(0));
+        assertEquals(4096, receiver.getReceiveOffset(1));
+    }
+
+    @Test
+    public void retransmitLostBlock() throws Exception {
+        byte[] data = randomBytes(4096, 2);
+        senderLink.dropDataFrames = 1;
+        sender.send(2, data);
+
+        // 重传在定时线程中进行，接收端在回复最后的确认之后才回调接收完成
+        assertTrue(senderRecorder.done.await(2, TimeUnit.SECONDS));
+        assertTrue(receiverRecorder.done.await(2, TimeUnit.SECONDS));
+        assertEquals(1, senderRecorder.completed.size());
+        assertArrayEquals(data, receiverRecorder.received.get(0));
+    }
+
+    @Test
+    public void cancelInProgressCallback() {
+        senderRecorder.cancelOnProgress = sender;
+        sender.send(3, randomBytes(4096, 3));
+
+        assertEquals(0, senderRecorder.completed.size());
+        assertEquals(1, senderRecorder.failed.size());
+        assertEquals(0, receiverRecorder.received.size());
+    }
+
+    @Test
+    public void reuseIdWithDifferentContent() {
+        byte[] first = randomBytes(4096, 4);
+        byte[] second = randomBytes(4096, 5);
+        sender.send(4, first);
+        sender.send(4, second);
+
+        assertEquals(2, senderRecorder.completed.size());
+        assertEquals(2, receiverRecorder.received.size());
+        assertArrayEquals(first, receiverRecorder.received.get(0));
+        assertArrayEquals(second, receiverRecorder.received.get(1));
+    }
+
+    @Test
+    public void resendDeliveredTransfer() {
+        byte[] data = randomBytes(4096, 7);
+        sender.send(7, data);
+        // 接收端已释放数据，只根据保留的进度确认，不会重复回调
+        sender.send(7, data);
+
+        assertEquals(2, senderRecorder.completed.size());
+        assertEquals(1, receiverRecorder.received.size());
+        assertEquals(4096, receiver.getReceiveOffset(7));
+    }
+
+    @Test
+    public void ignoreSackBeyondBlockCount() {
+        senderLink.dropAll = true;
+        sender.send(8, randomBytes(250, 8));
+        // START的确认，之后发出全部3块
+        byte[] ack = BLETransferFrame.ack(8, 0, 0);
+        sender.onReceive(ack, 0, ack.length);
+        // 选择确认第32块，超出块数
+        ack = BLETransferFrame.ack(8, 0, 1 << 31);
+        sender.onReceive(ack, 0, ack.length);
+        assertEquals(0, senderRecorder.completed.size());
+
+        ack = BLETransferFrame.ack(8, 3, 0);
+        sender.onReceive(ack, 0, ack.length);
+        assertEquals(1, senderRecorder.completed.size());
+    }
+
+    @Test
+    public void dropChecksumMismatch() {
+        byte[] data = randomBytes(250, 6);
+        // START中的校验和与数据不一致
+        byte[] start = BLETransferFrame.start(6, data.length, 100, 0);
+        receiver.onReceive(start, 0, start.length);
+        for (int seq = 0; seq < 3; seq++) {
+            byte[] frame = BLETransferFrame.data(6, seq, data, seq * 100, Math.min(100, data.length - seq * 100));
+            receiver.onReceive(frame, 0, frame.length);
+        }
+
+        assertEquals(0, receiverRecorder.received.size());
+        assertEquals(0, receiver.getReceiveOffset(6));
+    }
+
+    private static byte[] randomBytes(int len, long seed) {
+        byte[] data = new byte[len];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 同步把帧交给对端，可以丢弃前几个DATA帧或全部帧
+     */
+    private static class Link implements BLETransfer.Transport {
+        BLETransfer peer;
+        int dropDataFrames;
+        boolean dropAll;
+
+        @Override
+        public void send(byte[] frame, int offset, int len) {
+            if (dropAll) {
+                return;
+            }
+            if (frame[offset + 1] == BLETransferFrame.TYPE_DATA && dropDataFrames > 0) {
+                dropDataFrames--;
+                return;
+            }
+            peer.onReceive(frame, offset, len);
+        }
+    }
+
+    private static class Recorder implements BLETransfer.Listener {
+        final List<Integer> completed = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+        final List<byte[]> received = Collections.synchronizedList(new ArrayList<byte[]>());
+        final CountDownLatch done = new CountDownLatch(1);
+        BLETransfer cancelOnProgress;
+
+        @Override
+        public void onSendProgress(int id, int ackedBytes, int totalBytes) {
+            if (cancelOnProgress != null) {
+                cancelOnProgress.cancel();
+            }
+        }
+
+        @Override
+        public void onSendComplete(int id) {
+            completed.add(id);
+            done.countDown();
+        }
+
+        @Override
+        public void onSendFailed(int id, String msg) {
+            failed.add(msg);
+            done.countDown();
+        }
+
+        @Override
+        public void onReceiveComplete(int id, byte[] data) {
+            received.add(data.clone());
+            done.countDown();
+        }
+    }
+
+}